@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.benchmark;
+
+import com.seanchenxi.gwt.uri.template.EncodeRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Percent-encodes inputs of various scripts with both encoding rules.
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+  @Param({"U", "U_R"})
+  public EncodeRule rule;
+
+  @Param({"ascii", "reserved", "latin1", "cjk", "emoji"})
+  public String script;
+
+  private String input;
+
+  @Setup
+  public void setUp() {
+    if ("ascii".equals(script)) {
+      input = "the-quick_brown.fox~jumps-over-the-lazy-dog";
+    } else if ("reserved".equals(script)) {
+      input = "/path/to/file?query=a b&c=d#fragment";
+    } else if ("latin1".equals(script)) {
+      input = "Größenordnung café à la crème brûlée";
+    } else if ("cjk".equals(script)) {
+      input = "統一資源標識符テンプレート한국어";
+    } else {
+      input = "😀 smile 👍 thumbs 🎉";
+    }
+  }
+
+  @Benchmark
+  public String encode() {
+    return rule.encode(input);
+  }
+}
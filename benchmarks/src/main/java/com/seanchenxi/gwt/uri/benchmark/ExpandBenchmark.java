@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.benchmark;
+
+import com.seanchenxi.gwt.uri.server.Expander;
+import com.seanchenxi.gwt.uri.server.ExpanderGenerator;
+import com.seanchenxi.gwt.uri.template.UriTemplate;
+import com.seanchenxi.gwt.uri.template.UriTemplateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parses and expands a single expression, for every operator, modifier and kind of value.
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpandBenchmark {
+
+  @Param({"", "+", "#", ".", "/", ";", "?", "&"})
+  public String operator;
+
+  @Param({"", "*", ":3"})
+  public String modifier;
+
+  @Param({"string", "list", "map"})
+  public String value;
+
+  private String raw;
+
+  private UriTemplate template;
+
+  private Expander generated;
+
+  private Map<String, Object> variables;
+
+  private Object[] slots;
+
+  @Setup
+  public void setUp() {
+    Map<String, String> map = new LinkedHashMap<String, String>();
+    map.put("semi", ";");
+    map.put("dot", ".");
+    map.put("comma", ",");
+    variables = new HashMap<String, Object>();
+    variables.put("string", "Hello World!");
+    variables.put("list", Arrays.asList("red", "green", "blue"));
+    variables.put("map", map);
+    raw = "/base{" + operator + value + modifier + "}";
+    template = UriTemplateBuilder.create(raw).build();
+    generated = ExpanderGenerator.generate(template);
+    slots = new Object[]{variables.get(value)};
+  }
+
+  @Benchmark
+  public UriTemplate parse() {
+    return UriTemplateBuilder.create(raw).build();
+  }
+
+  @Benchmark
+  public String expand() {
+    return template.expand(variables);
+  }
+
+  @Benchmark
+  public String expandSlots() {
+    return template.compile().expand(slots);
+  }
+
+  @Benchmark
+  public String expandGenerated() {
+    return generated.expand(slots);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.benchmark;
+
+import com.seanchenxi.gwt.uri.template.UriTemplate;
+import com.seanchenxi.gwt.uri.template.UriTemplateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expands large exploded lists and associative arrays.
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExplodeBenchmark {
+
+  @Param({"10", "1000"})
+  public int size;
+
+  private UriTemplate list;
+
+  private UriTemplate map;
+
+  private Map<String, Object> variables;
+
+  @Setup
+  public void setUp() {
+    List<String> items = new ArrayList<String>(size);
+    Map<String, String> pairs = new LinkedHashMap<String, String>();
+    for (int i = 0; i < size; i++) {
+      items.add("item " + i);
+      pairs.put("key" + i, "value " + i);
+    }
+    variables = new HashMap<String, Object>();
+    variables.put("list", items);
+    variables.put("map", pairs);
+    list = UriTemplateBuilder.create("/search{?list*}").build();
+    map = UriTemplateBuilder.create("/search{?map*}").build();
+  }
+
+  @Benchmark
+  public String explodeList() {
+    return list.expand(variables);
+  }
+
+  @Benchmark
+  public String explodeMap() {
+    return map.expand(variables);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test cases of the uritemplate-test corpus (the <code>src/test/resources/test-spec</code> submodule).
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+final class SpecCorpus {
+
+  static final String DIRECTORY_PROPERTY = "uri-template.spec";
+
+  private static final String DEFAULT_DIRECTORY = "../src/test/resources/test-spec";
+
+  private static final String[] FILES = {"spec-examples.json", "spec-examples-by-section.json", "extended-tests.json"};
+
+  /**
+   * A template of the corpus, with the variables of its group. Templates expected to fail are left out.
+   */
+  static final class Case {
+
+    final String template;
+
+    final Map<String, Object> variables;
+
+    Case(String template, Map<String, Object> variables) {
+      this.template = template;
+      this.variables = variables;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static List<Case> load() throws IOException {
+    File directory = new File(System.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY));
+    ObjectMapper mapper = new ObjectMapper();
+    List<Case> cases = new ArrayList<Case>();
+    for (String file : FILES) {
+      Map<String, Object> groups = mapper.readValue(new File(directory, file), Map.class);
+      for (Object group : groups.values()) {
+        Map<String, Object> content = (Map<String, Object>) group;
+        Map<String, Object> variables = (Map<String, Object>) content.get("variables");
+        for (Object testCase : (List<Object>) content.get("testcases")) {
+          List<Object> pair = (List<Object>) testCase;
+          if (!Boolean.FALSE.equals(pair.get(1))) {
+            cases.add(new Case((String) pair.get(0), variables));
+          }
+        }
+      }
+    }
+    if (cases.isEmpty()) {
+      throw new IOException("No test case found in " + directory.getAbsolutePath()
+          + ", run 'git submodule update --init' or set -D" + DIRECTORY_PROPERTY);
+    }
+    return cases;
+  }
+
+  private SpecCorpus() {
+  }
+}
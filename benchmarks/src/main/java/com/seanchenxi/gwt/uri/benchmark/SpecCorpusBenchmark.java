@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.benchmark;
+
+import com.seanchenxi.gwt.uri.template.UriTemplate;
+import com.seanchenxi.gwt.uri.template.UriTemplateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Parses and expands every valid template of the spec corpus, one operation being the whole corpus.
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpecCorpusBenchmark {
+
+  private List<SpecCorpus.Case> cases;
+
+  private UriTemplate[] templates;
+
+  @Setup
+  public void setUp() throws IOException {
+    cases = SpecCorpus.load();
+    templates = new UriTemplate[cases.size()];
+    for (int i = 0; i < templates.length; i++) {
+      templates[i] = UriTemplateBuilder.create(cases.get(i).template).build();
+    }
+  }
+
+  @Benchmark
+  public void parse(Blackhole blackhole) {
+    for (SpecCorpus.Case testCase : cases) {
+      blackhole.consume(UriTemplateBuilder.create(testCase.template).build());
+    }
+  }
+
+  @Benchmark
+  public void expand(Blackhole blackhole) {
+    for (int i = 0; i < templates.length; i++) {
+      blackhole.consume(templates[i].expand(cases.get(i).variables));
+    }
+  }
+}
@@ -0,0 +1,4 @@
+package com.seanchenxi.gwt.uri.benchmark.jmh_generated;
+public class EncodeBenchmark_jmhType extends EncodeBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.seanchenxi.gwt.uri.benchmark.jmh_generated;
+public class ExpandBenchmark_jmhType extends ExpandBenchmark_jmhType_B3 {
+}
+
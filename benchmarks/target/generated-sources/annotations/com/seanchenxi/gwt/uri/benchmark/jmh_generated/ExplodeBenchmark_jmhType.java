@@ -0,0 +1,4 @@
+package com.seanchenxi.gwt.uri.benchmark.jmh_generated;
+public class ExplodeBenchmark_jmhType extends ExplodeBenchmark_jmhType_B3 {
+}
+
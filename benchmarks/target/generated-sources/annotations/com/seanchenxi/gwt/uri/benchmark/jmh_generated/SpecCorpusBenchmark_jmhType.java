@@ -0,0 +1,4 @@
+package com.seanchenxi.gwt.uri.benchmark.jmh_generated;
+public class SpecCorpusBenchmark_jmhType extends SpecCorpusBenchmark_jmhType_B3 {
+}
+
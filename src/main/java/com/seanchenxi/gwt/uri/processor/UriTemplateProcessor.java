@@ -0,0 +1,543 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.processor;
+
+import com.seanchenxi.gwt.uri.template.Expression;
+import com.seanchenxi.gwt.uri.template.Literal;
+import com.seanchenxi.gwt.uri.template.Modifier;
+import com.seanchenxi.gwt.uri.template.Operator;
+import com.seanchenxi.gwt.uri.template.PrefixVarSpec;
+import com.seanchenxi.gwt.uri.template.TemplatePartial;
+import com.seanchenxi.gwt.uri.template.UriTemplateBuilder;
+import com.seanchenxi.gwt.uri.template.VarSpec;
+import com.seanchenxi.gwt.uri.template.annotation.UriTemplate;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Generates the implementations of the interfaces declaring {@link UriTemplate} methods.
+ * </p>
+ * <p>
+ * Templates are parsed when compiling, malformed templates and variables without parameters being reported as
+ * compilation errors. The generated code appends the encoded literals as constants, and expands each expression
+ * according to the types of its parameters:
+ * </p>
+ * <ul>
+ *   <li>when all its variables are simple (primitives, their wrappers, strings and enums) and have no modifier,
+ *   the expression is unrolled, its separators and names being constants, and its values encoded straight into
+ *   the output by the {@link com.seanchenxi.gwt.uri.template.EncodeRule} of its operator,</li>
+ *   <li>otherwise, it is expanded by a {@link com.seanchenxi.gwt.uri.template.CompiledTemplate} built once from
+ *   the expression model, given its values by slot.</li>
+ * </ul>
+ * <p>
+ * Each method delegates to a private static method whose parameters are renamed <code>$0</code>,
+ * <code>$1</code>..., so that parameter names never collide with the generated locals nor shadow the fully
+ * qualified names of the generated code (e.g. a parameter named <code>java</code>).
+ * </p>
+ * <p>
+ * The generated code only uses the <code>com.seanchenxi.gwt.uri.template</code> package, so it can be used
+ * by GWT code as well. The processor itself is JVM only, it is not part of the GWT module.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+@SupportedAnnotationTypes("com.seanchenxi.gwt.uri.template.annotation.UriTemplate")
+public final class UriTemplateProcessor extends AbstractProcessor {
+
+  /**
+   * Appended to the name of the interface to name its implementation
+   */
+  public static final String SUFFIX = "Expander";
+
+  private static final String TEMPLATE_PACKAGE = "com.seanchenxi.gwt.uri.template.";
+
+  /**
+   * Initial estimate of the length written for each expression
+   */
+  private static final int EXPRESSION_LENGTH_HINT = 16;
+
+  /**
+   * Types whose values are written as strings, and are never empty
+   */
+  private static final Set<String> NON_EMPTY_SCALARS = new HashSet<String>(Arrays.asList(
+      "java.lang.Boolean", "java.lang.Byte", "java.lang.Character", "java.lang.Short", "java.lang.Integer",
+      "java.lang.Long", "java.lang.Float", "java.lang.Double"));
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+    Set<TypeElement> interfaces = new LinkedHashSet<TypeElement>();
+    for (Element method : round.getElementsAnnotatedWith(UriTemplate.class)) {
+      if (method.getEnclosingElement().getKind() == ElementKind.INTERFACE) {
+        interfaces.add((TypeElement) method.getEnclosingElement());
+      } else {
+        error(method, "@UriTemplate methods must be declared by an interface");
+      }
+    }
+    for (TypeElement type : interfaces) {
+      new Implementation(type).write();
+    }
+    return true;
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  /**
+   * @return the name of the implementation of the given interface, nested names being joined by underscores
+   */
+  static String implementationName(TypeElement type) {
+    String name = type.getSimpleName().toString();
+    for (Element outer = type.getEnclosingElement(); outer instanceof TypeElement; outer = outer.getEnclosingElement()) {
+      name = outer.getSimpleName() + "_" + name;
+    }
+    return name + SUFFIX;
+  }
+
+  /**
+   * @return the given string as a Java string literal
+   */
+  static String quote(String value) {
+    StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c >= 0x20 && c < 0x7F) {
+        out.append(c);
+      } else {
+        String hex = Integer.toHexString(c);
+        out.append("\\u").append("0000", hex.length(), 4).append(hex);
+      }
+    }
+    return out.append('"').toString();
+  }
+
+  /**
+   * The source of the implementation of one interface.
+   */
+  private final class Implementation {
+
+    private final TypeElement type;
+
+    private final StringBuilder fields = new StringBuilder();
+
+    private final StringBuilder methods = new StringBuilder();
+
+    private int expressions;
+
+    private boolean valid = true;
+
+    Implementation(TypeElement type) {
+      this.type = type;
+    }
+
+    void write() {
+      List<ExecutableElement> members = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type));
+      for (ExecutableElement method : members) {
+        if (method.getModifiers().contains(javax.lang.model.element.Modifier.ABSTRACT)
+            && method.getEnclosingElement().getKind() == ElementKind.INTERFACE) {
+          method(method);
+        }
+      }
+      if (!valid) {
+        return;
+      }
+      String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+      String name = implementationName(type);
+      StringBuilder source = new StringBuilder();
+      if (!packageName.isEmpty()) {
+        source.append("package ").append(packageName).append(";\n\n");
+      }
+      source.append("/**\n")
+          .append(" * Expands the templates of {@link ").append(type.getQualifiedName()).append("}.\n")
+          .append(" * Generated by ").append(UriTemplateProcessor.class.getName()).append(".\n")
+          .append(" */\n")
+          .append("public final class ").append(name).append(" implements ").append(type.getQualifiedName())
+          .append(" {\n\n")
+          .append(fields)
+          .append(methods)
+          .append("}\n");
+      try {
+        Writer writer = processingEnv.getFiler().createSourceFile(
+            packageName.isEmpty() ? name : packageName + "." + name, type).openWriter();
+        try {
+          writer.write(source.toString());
+        } finally {
+          writer.close();
+        }
+      } catch (IOException e) {
+        error(type, "Cannot write " + name + ": " + e.getMessage());
+      }
+    }
+
+    private void method(ExecutableElement method) {
+      UriTemplate annotation = method.getAnnotation(UriTemplate.class);
+      if (annotation == null) {
+        fail(method, "Missing @UriTemplate on " + method.getSimpleName() + "()");
+        return;
+      }
+      if (!isType(method.getReturnType(), "java.lang.String")) {
+        fail(method, "@UriTemplate methods must return a String");
+      }
+      if (!method.getTypeParameters().isEmpty()) {
+        fail(method, "@UriTemplate methods cannot be generic");
+      }
+      for (VariableElement parameter : method.getParameters()) {
+        if (hasTypeVariable(parameter.asType())) {
+          // the generated static method could not refer to them
+          fail(parameter, "@UriTemplate parameters cannot use type variables");
+        }
+      }
+      List<TemplatePartial> partials;
+      try {
+        partials = UriTemplateBuilder.create(annotation.value()).build().getPartials();
+      } catch (RuntimeException e) {
+        fail(method, "Malformed template \"" + annotation.value() + "\": " + e.getMessage());
+        return;
+      }
+
+      Map<String, VariableElement> parameters = new LinkedHashMap<String, VariableElement>();
+      for (VariableElement parameter : method.getParameters()) {
+        UriTemplate.Variable variable = parameter.getAnnotation(UriTemplate.Variable.class);
+        parameters.put(variable == null ? parameter.getSimpleName().toString() : variable.value(), parameter);
+      }
+      Set<String> unused = new LinkedHashSet<String>(parameters.keySet());
+      for (TemplatePartial partial : partials) {
+        if (partial instanceof Expression) {
+          for (VarSpec varSpec : ((Expression) partial).getVarSpecs()) {
+            if (!parameters.containsKey(varSpec.getName())) {
+              fail(method, "No parameter for the variable '" + varSpec.getName() + "'");
+            }
+            unused.remove(varSpec.getName());
+          }
+        }
+      }
+      for (String name : unused) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+            "Parameter '" + name + "' is not a variable of the template", parameters.get(name));
+      }
+      if (!valid) {
+        return;
+      }
+
+      StringBuilder body = new StringBuilder();
+      StringBuilder literal = new StringBuilder();
+      int lengthHint = 0;
+      boolean encodes = false;
+      for (TemplatePartial partial : partials) {
+        if (partial instanceof Literal) {
+          // encoded on its own, as when compiled
+          literal.append(UriTemplateBuilder.create().add(partial).build().expand(null));
+          continue;
+        }
+        lengthHint += literal.length() + EXPRESSION_LENGTH_HINT;
+        append(body, literal.toString());
+        literal.setLength(0);
+        encodes |= expression(body, (Expression) partial, parameters);
+      }
+      lengthHint += literal.length();
+      append(body, literal.toString());
+
+      List<? extends VariableElement> declared = method.getParameters();
+      methods.append("  @Override\n  public java.lang.String ").append(method.getSimpleName()).append('(');
+      for (int i = 0; i < declared.size(); i++) {
+        methods.append(i == 0 ? "" : ", ").append(declared.get(i).asType()).append(' ')
+            .append(declared.get(i).getSimpleName());
+      }
+      methods.append(") {\n    return $").append(method.getSimpleName()).append('(');
+      for (int i = 0; i < declared.size(); i++) {
+        methods.append(i == 0 ? "" : ", ").append(declared.get(i).getSimpleName());
+      }
+      methods.append(");\n  }\n\n");
+
+      methods.append("  private static java.lang.String $").append(method.getSimpleName()).append('(');
+      for (int i = 0; i < declared.size(); i++) {
+        methods.append(i == 0 ? "" : ", ").append(declared.get(i).asType()).append(' ').append(local(declared.get(i)));
+      }
+      methods.append(") {\n")
+          .append("    java.lang.StringBuilder $out = new java.lang.StringBuilder(").append(lengthHint).append(");\n");
+      if (encodes) {
+        methods.append("    try {\n").append(body.toString().replace("\n    ", "\n      ").replaceFirst("^    ", "      "))
+            .append("    } catch (java.io.IOException e) {\n")
+            .append("      throw new java.lang.IllegalStateException(e);\n")
+            .append("    }\n");
+      } else {
+        methods.append(body);
+      }
+      methods.append("    return $out.toString();\n  }\n\n");
+    }
+
+    /**
+     * @return whether the expression was unrolled, encoding some of its values
+     */
+    private boolean expression(StringBuilder body, Expression expression, Map<String, VariableElement> parameters) {
+      Operator operator = expression.getOperator();
+      List<VarSpec> varSpecs = expression.getVarSpecs();
+      boolean unrolled = true;
+      for (VarSpec varSpec : varSpecs) {
+        unrolled &= !(varSpec instanceof PrefixVarSpec) && !varSpec.is(Modifier.EXPLODE)
+            && isScalar(parameters.get(varSpec.getName()).asType());
+      }
+      if (!unrolled) {
+        interpreted(body, expression, parameters);
+        return false;
+      }
+
+      // a separator depends on the previous variables being defined when some may be null, and none is primitive
+      boolean constantSeparator = operator.getFirst().equals(operator.getSep());
+      boolean flagged = false;
+      boolean possibly = false;
+      boolean definitely = false;
+      for (VarSpec varSpec : varSpecs) {
+        flagged |= possibly && !definitely && !constantSeparator;
+        possibly = true;
+        definitely |= parameters.get(varSpec.getName()).asType().getKind().isPrimitive();
+      }
+      String flag = "$written" + expressions++;
+      if (flagged) {
+        body.append("    boolean ").append(flag).append(" = false;\n");
+      }
+
+      possibly = false;
+      definitely = false;
+      boolean encodes = false;
+      for (VarSpec varSpec : varSpecs) {
+        VariableElement parameter = parameters.get(varSpec.getName());
+        TypeMirror type = parameter.asType();
+        boolean nullable = !type.getKind().isPrimitive();
+        String indent = nullable ? "      " : "    ";
+        String value = isType(type, "java.lang.String") ? local(parameter)
+            : "java.lang.String.valueOf(" + local(parameter) + ")";
+        String name = operator.isNamed() ? varSpec.getName() : "";
+        boolean mayBeEmpty = operator.isNamed() && !"=".equals(operator.getIfemp()) && !isNonEmpty(type);
+        if (operator.isNamed() && !mayBeEmpty) {
+          name += "=";
+        }
+
+        if (nullable) {
+          body.append("    if (").append(local(parameter)).append(" != null) {\n");
+        }
+        if (mayBeEmpty) {
+          body.append(indent).append("java.lang.String $value = ").append(value).append(";\n");
+          value = "$value";
+        }
+        if (!possibly) {
+          append(body, indent, operator.getFirst() + name);
+        } else if (definitely || constantSeparator) {
+          append(body, indent, operator.getSep() + name);
+        } else {
+          body.append(indent).append("$out.append(").append(flag).append(" ? ").append(quote(operator.getSep() + name))
+              .append(" : ").append(quote(operator.getFirst() + name)).append(");\n");
+        }
+        if (mayBeEmpty) {
+          body.append(indent).append("$out.append($value.isEmpty() ? ").append(quote(operator.getIfemp()))
+              .append(" : \"=\");\n");
+        }
+        String digits = unencoded(type, local(parameter));
+        if (digits != null) {
+          body.append(indent).append("$out.append(").append(digits).append(");\n");
+        } else {
+          body.append(indent).append(TEMPLATE_PACKAGE).append("EncodeRule.").append(operator.getAllow().name())
+              .append(".encodeTo(").append(value).append(", $out);\n");
+          encodes = true;
+        }
+        if (flagged) {
+          body.append(indent).append(flag).append(" = true;\n");
+        }
+        if (nullable) {
+          body.append("    }\n");
+        }
+        possibly = true;
+        definitely |= !nullable;
+      }
+      return encodes;
+    }
+
+    /**
+     * Expands the expression with a compiled template, built from the model once.
+     */
+    private void interpreted(StringBuilder body, Expression expression, Map<String, VariableElement> parameters) {
+      String field = "EXPRESSION_" + expressions++;
+      fields.append("  private static final ").append(TEMPLATE_PACKAGE).append("CompiledTemplate ").append(field)
+          .append(" = ").append(TEMPLATE_PACKAGE).append("UriTemplateBuilder.create()\n")
+          .append("      .add(").append(TEMPLATE_PACKAGE).append("ExpressionBuilder.create(")
+          .append(TEMPLATE_PACKAGE).append("Operator.").append(expression.getOperator().name());
+      Set<String> names = new LinkedHashSet<String>();
+      for (VarSpec varSpec : expression.getVarSpecs()) {
+        fields.append(",\n          ");
+        if (varSpec instanceof PrefixVarSpec) {
+          fields.append(TEMPLATE_PACKAGE).append("VarSpecBuilder.var(").append(quote(varSpec.getName())).append(", ")
+              .append(((PrefixVarSpec) varSpec).getMaxLength()).append(')');
+        } else if (varSpec.is(Modifier.EXPLODE)) {
+          fields.append(TEMPLATE_PACKAGE).append("VarSpecBuilder.explode(").append(quote(varSpec.getName()))
+              .append(')');
+        } else {
+          fields.append("new ").append(TEMPLATE_PACKAGE).append("VarSpec(").append(quote(varSpec.getName()))
+              .append(')');
+        }
+        names.add(varSpec.getName());
+      }
+      fields.append(")).compile();\n\n");
+
+      body.append("    ").append(field).append(".expandTo(new java.lang.Object[]{");
+      boolean first = true;
+      for (String name : names) {
+        body.append(first ? "" : ", ").append(local(parameters.get(name)));
+        first = false;
+      }
+      body.append("}, $out);\n");
+    }
+
+    private void append(StringBuilder body, String constant) {
+      append(body, "    ", constant);
+    }
+
+    private void append(StringBuilder body, String indent, String constant) {
+      if (!constant.isEmpty()) {
+        body.append(indent).append("$out.append(").append(quote(constant)).append(");\n");
+      }
+    }
+
+    private void fail(Element element, String message) {
+      error(element, message);
+      valid = false;
+    }
+  }
+
+  /**
+   * @return whether the given type is, or is built from, a type variable
+   */
+  private static boolean hasTypeVariable(TypeMirror type) {
+    switch (type.getKind()) {
+      case TYPEVAR:
+        return true;
+      case ARRAY:
+        return hasTypeVariable(((ArrayType) type).getComponentType());
+      case WILDCARD:
+        WildcardType wildcard = (WildcardType) type;
+        return (wildcard.getExtendsBound() != null && hasTypeVariable(wildcard.getExtendsBound()))
+            || (wildcard.getSuperBound() != null && hasTypeVariable(wildcard.getSuperBound()));
+      case DECLARED:
+        for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+          if (hasTypeVariable(argument)) {
+            return true;
+          }
+        }
+        return false;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return whether values of the given type are expanded as strings, never as lists nor associative arrays
+   */
+  private boolean isScalar(TypeMirror type) {
+    if (type.getKind().isPrimitive() || isType(type, "java.lang.String") || isNonEmpty(type)) {
+      return true;
+    }
+    if (type.getKind() != TypeKind.DECLARED
+        || ((DeclaredType) type).asElement().getKind() != ElementKind.ENUM) {
+      return false;
+    }
+    return !isAssignable(type, "java.lang.Iterable") && !isAssignable(type, "java.util.Map");
+  }
+
+  /**
+   * @return the name of the parameter in the generated static method
+   */
+  private static String local(VariableElement parameter) {
+    return "$" + ((ExecutableElement) parameter.getEnclosingElement()).getParameters().indexOf(parameter);
+  }
+
+  /**
+   * @return the expression appending the given integer or boolean parameter as is, its string never needing
+   * encoding, or null if the parameter is of another type
+   */
+  private static String unencoded(TypeMirror type, String parameter) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        return parameter;
+      case DECLARED:
+        String name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+        if ("java.lang.Boolean".equals(name)) {
+          return parameter + ".booleanValue()";
+        } else if ("java.lang.Long".equals(name)) {
+          return parameter + ".longValue()";
+        } else if ("java.lang.Integer".equals(name) || "java.lang.Short".equals(name) || "java.lang.Byte".equals(name)) {
+          return parameter + ".intValue()";
+        }
+        return null;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return whether the strings of the values of the given type are never empty
+   */
+  private boolean isNonEmpty(TypeMirror type) {
+    return type.getKind().isPrimitive() || (type.getKind() == TypeKind.DECLARED
+        && NON_EMPTY_SCALARS.contains(((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString()));
+  }
+
+  private boolean isType(TypeMirror type, String name) {
+    return type.getKind() == TypeKind.DECLARED
+        && ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals(name);
+  }
+
+  private boolean isAssignable(TypeMirror type, String name) {
+    TypeElement element = processingEnv.getElementUtils().getTypeElement(name);
+    return element != null && processingEnv.getTypeUtils().isAssignable(type,
+        processingEnv.getTypeUtils().erasure(element.asType()));
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.server;
+
+import com.seanchenxi.gwt.uri.template.CompiledTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Expands one template against many sets of values, in parallel.
+ * </p>
+ * <p>
+ * The rows are split into chunks expanded by the tasks of an executor, any <code>ExecutorService</code> such as a
+ * <code>ForkJoinPool</code>, or by default a shared pool of daemon threads, one per processor. Each task writes all
+ * the rows of its chunks into the same reused buffer, and results are returned in the order of the rows.
+ * Small batches are expanded by the calling thread.
+ * </p>
+ * <p>
+ * The calling thread expands chunks too, taking them from the same queue as the tasks, and only waits for the
+ * chunks being expanded by other threads: tasks that have not started yet find no chunk left and end at once.
+ * Batches can thus be expanded from a task of the very executor they are given, even a bounded one whose threads
+ * are all busy, without waiting for tasks queued behind them.
+ * </p>
+ * <p>
+ * This class is JVM only, it is not part of the GWT module.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class BatchExpander {
+
+  /**
+   * Minimum number of rows per task, below which splitting costs more than it saves
+   */
+  static final int MIN_CHUNK_SIZE = 256;
+
+  /**
+   * Larger buffers are not kept from one row to the next
+   */
+  private static final int MAX_REUSED_CAPACITY = 16 * 1024;
+
+  private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+  private static volatile ExecutorService sharedPool;
+
+  private static ExecutorService sharedPool() {
+    ExecutorService pool = sharedPool;
+    if (pool == null) {
+      synchronized (BatchExpander.class) {
+        pool = sharedPool;
+        if (pool == null) {
+          sharedPool = pool = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "uri-template-batch-" + (++count));
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+        }
+      }
+    }
+    return pool;
+  }
+
+  private final CompiledTemplate template;
+
+  private final ExecutorService executor;
+
+  /**
+   * Expands in the shared pool.
+   */
+  public BatchExpander(CompiledTemplate template) {
+    this(template, null);
+  }
+
+  public BatchExpander(CompiledTemplate template, ExecutorService executor) {
+    this.template = template;
+    this.executor = executor;
+  }
+
+  /**
+   * @return the expansions, in the order of the given values
+   * @see CompiledTemplate#expand(Map)
+   */
+  public List<String> expandAll(List<? extends Map<String, Object>> rows) {
+    final List<? extends Map<String, Object>> indexed = randomAccess(rows);
+    return expandAll(indexed.size(), new Row() {
+      @Override
+      public void expandTo(int index, StringBuilder out) {
+        template.expandTo(indexed.get(index), out);
+      }
+    });
+  }
+
+  /**
+   * @param rows values by slot, see {@link CompiledTemplate#expand(Object[])}
+   * @return the expansions, in the order of the given values
+   */
+  public List<String> expandAllSlots(List<Object[]> rows) {
+    final List<Object[]> indexed = randomAccess(rows);
+    return expandAll(indexed.size(), new Row() {
+      @Override
+      public void expandTo(int index, StringBuilder out) {
+        template.expandTo(indexed.get(index), out);
+      }
+    });
+  }
+
+  /**
+   * Rows are read by index, which is linear for lists such as <code>LinkedList</code>: those are copied first.
+   */
+  private static <T> List<T> randomAccess(List<T> rows) {
+    return rows instanceof RandomAccess ? rows : new ArrayList<T>(rows);
+  }
+
+  private List<String> expandAll(int size, Row row) {
+    String[] results = new String[size];
+    int chunks = Math.min(PARALLELISM * 4, size / MIN_CHUNK_SIZE);
+    if (chunks <= 1) {
+      expand(row, results, 0, size, new StringBuilder());
+      return Collections.unmodifiableList(Arrays.asList(results));
+    }
+    ExecutorService executor = this.executor == null ? sharedPool() : this.executor;
+    Batch batch = new Batch(row, results, chunks);
+    List<Future<?>> futures = new ArrayList<Future<?>>(chunks - 1);
+    try {
+      for (int i = 1; i < chunks; i++) {
+        futures.add(executor.submit(batch));
+      }
+      batch.run();
+      batch.done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } finally {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+    Throwable failure = batch.failure;
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+    return Collections.unmodifiableList(Arrays.asList(results));
+  }
+
+  /**
+   * Writes the rows from <code>from</code> (inclusive) to <code>to</code> (exclusive) into the given buffer.
+   *
+   * @return the buffer to reuse for the next rows
+   */
+  private static StringBuilder expand(Row row, String[] results, int from, int to, StringBuilder out) {
+    for (int i = from; i < to; i++) {
+      row.expandTo(i, out);
+      results[i] = out.toString();
+      if (out.capacity() > MAX_REUSED_CAPACITY) {
+        out = new StringBuilder();
+      } else {
+        out.setLength(0);
+      }
+    }
+    return out;
+  }
+
+  private interface Row {
+
+    void expandTo(int index, StringBuilder out);
+  }
+
+  /**
+   * The chunks of one batch, expanded by every thread running it until none is left.
+   */
+  private static final class Batch implements Runnable {
+
+    private final Row row;
+
+    private final String[] results;
+
+    private final int chunks;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Counts down the chunks expanded, or given up after a failure
+     */
+    private final CountDownLatch done;
+
+    private volatile Throwable failure;
+
+    Batch(Row row, String[] results, int chunks) {
+      this.row = row;
+      this.results = results;
+      this.chunks = chunks;
+      this.done = new CountDownLatch(chunks);
+    }
+
+    @Override
+    public void run() {
+      StringBuilder out = new StringBuilder();
+      for (int chunk = next.getAndIncrement(); chunk < chunks; chunk = next.getAndIncrement()) {
+        try {
+          if (failure == null) {
+            out = expand(row, results, from(chunk), from(chunk + 1), out);
+          }
+        } catch (RuntimeException e) {
+          failure = e;
+        } catch (Error e) {
+          failure = e;
+        } finally {
+          done.countDown();
+        }
+      }
+    }
+
+    private int from(int chunk) {
+      return (int) ((long) results.length * chunk / chunks);
+    }
+  }
+}
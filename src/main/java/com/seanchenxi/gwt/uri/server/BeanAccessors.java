@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.server;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * The property accessors of a class, looked up on first use and cached.
+ * </p>
+ * <p>
+ * Lookups never lock. Classes loaded by the class loader of this library, or by one of its parents, cannot be
+ * unloaded before it and keep their accessors for good. Classes of other loaders, such as those of a web
+ * application deployed next to it, are weakly referenced and their accessors softly, since the accessors
+ * reference the classes back: caching them never keeps a class, nor its class loader, from being unloaded.
+ * </p>
+ * <p>
+ * Only property getters (<code>getX()</code>, <code>isX()</code>), public fields and record-style accessors
+ * are read. A method named after the property itself (<code>x()</code>) must be the accessor of a record
+ * component, or of a field of the same name and type for other classes, so that methods such as
+ * <code>File.delete()</code> are never invoked. Methods declared by <code>Object</code> are never read either.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+final class BeanAccessors {
+
+  private static final ConcurrentMap<Class<?>, BeanAccessors> CLASSES =
+      new ConcurrentHashMap<Class<?>, BeanAccessors>();
+
+  private static final ConcurrentMap<ClassKey, Reference<BeanAccessors>> FOREIGN_CLASSES =
+      new ConcurrentHashMap<ClassKey, Reference<BeanAccessors>>();
+
+  private static final ReferenceQueue<Class<?>> UNLOADED = new ReferenceQueue<Class<?>>();
+
+  static BeanAccessors forClass(Class<?> type) {
+    BeanAccessors accessors = CLASSES.get(type);
+    if (accessors != null) {
+      return accessors;
+    }
+    if (isPinned(type)) {
+      accessors = new BeanAccessors(type);
+      BeanAccessors previous = CLASSES.putIfAbsent(type, accessors);
+      return previous == null ? accessors : previous;
+    }
+    Reference<BeanAccessors> reference = FOREIGN_CLASSES.get(new ClassKey(type, null));
+    accessors = reference == null ? null : reference.get();
+    if (accessors == null) {
+      for (Reference<?> unloaded; (unloaded = UNLOADED.poll()) != null; ) {
+        FOREIGN_CLASSES.remove(unloaded);
+      }
+      accessors = new BeanAccessors(type);
+      FOREIGN_CLASSES.put(new ClassKey(type, UNLOADED), new SoftReference<BeanAccessors>(accessors));
+    }
+    return accessors;
+  }
+
+  /**
+   * @return true if the given class lives at least as long as this one
+   */
+  private static boolean isPinned(Class<?> type) {
+    ClassLoader loader = type.getClassLoader();
+    if (loader == null) {
+      return true;
+    }
+    for (ClassLoader own = BeanAccessors.class.getClassLoader(); own != null; own = own.getParent()) {
+      if (own == loader) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Weakly references a class, compared by identity.
+   */
+  private static final class ClassKey extends WeakReference<Class<?>> {
+
+    private final int hash;
+
+    ClassKey(Class<?> type, ReferenceQueue<Class<?>> queue) {
+      super(type, queue);
+      this.hash = System.identityHashCode(type);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ClassKey)) {
+        return false;
+      }
+      Class<?> type = get();
+      return type != null && type == ((ClassKey) o).get();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Reads one property, or a dotted path of properties.
+   */
+  abstract static class Accessor {
+
+    static final Accessor UNDEFINED = new Accessor() {
+      @Override
+      Object read(Object bean) {
+        return null;
+      }
+    };
+
+    abstract Object read(Object bean);
+  }
+
+  private final Class<?> type;
+
+  private final ConcurrentMap<String, Accessor> accessors = new ConcurrentHashMap<String, Accessor>();
+
+  private BeanAccessors(Class<?> type) {
+    this.type = type;
+  }
+
+  Accessor get(String name) {
+    Accessor accessor = accessors.get(name);
+    if (accessor == null) {
+      accessor = lookup(name);
+      accessors.putIfAbsent(name, accessor);
+    }
+    return accessor;
+  }
+
+  private Accessor lookup(final String name) {
+    String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    Method method = findMethod("get" + capitalized);
+    if (method == null) {
+      method = findMethod("is" + capitalized);
+      if (method != null && method.getReturnType() != boolean.class && method.getReturnType() != Boolean.class) {
+        method = null;
+      }
+    }
+    if (method == null) {
+      method = findMethod(name);
+      if (method != null && !isRecordStyle(method)) {
+        method = null;
+      }
+    }
+    if (method != null) {
+      return new MethodAccessor(accessible(method));
+    }
+    Field field = findField(name);
+    if (field != null) {
+      return new FieldAccessor(accessible(field));
+    }
+    final int dot = name.indexOf('.');
+    if (dot > 0) {
+      final Accessor head = get(name.substring(0, dot));
+      return new Accessor() {
+        @Override
+        Object read(Object bean) {
+          return BeanResolver.read(head.read(bean), name.substring(dot + 1));
+        }
+      };
+    }
+    return Accessor.UNDEFINED;
+  }
+
+  private Method findMethod(String name) {
+    try {
+      Method method = type.getMethod(name);
+      return method.getReturnType() == void.class || Modifier.isStatic(method.getModifiers())
+          || method.getDeclaringClass() == Object.class ? null : method;
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return whether the method is the accessor of a record component, or of a field of the same name and type
+   */
+  private static boolean isRecordStyle(Method method) {
+    Class<?> declaring = method.getDeclaringClass();
+    Object[] components = recordComponents(declaring);
+    if (components != null) {
+      for (Object component : components) {
+        if (method.equals(invoke(component, "getAccessor"))) {
+          return true;
+        }
+      }
+      return false;
+    }
+    try {
+      Field field = declaring.getDeclaredField(method.getName());
+      return !Modifier.isStatic(field.getModifiers()) && field.getType() == method.getReturnType();
+    } catch (NoSuchFieldException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return the record components of the class, or null if it is not a record, or records are not supported
+   */
+  private static Object[] recordComponents(Class<?> type) {
+    return Boolean.TRUE.equals(invoke(type, "isRecord")) ? (Object[]) invoke(type, "getRecordComponents") : null;
+  }
+
+  /**
+   * Invokes a method of the Java 16+ reflection API.
+   *
+   * @return the result, or null if the method does not exist
+   */
+  private static Object invoke(Object target, String name) {
+    try {
+      return target.getClass().getMethod(name).invoke(target);
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      return null;
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private Field findField(String name) {
+    try {
+      Field field = type.getField(name);
+      return Modifier.isStatic(field.getModifiers()) ? null : field;
+    } catch (NoSuchFieldException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Public members of non-public classes (e.g. private nested classes) need to be made accessible.
+   */
+  private static <T extends AccessibleObject> T accessible(T member) {
+    try {
+      member.setAccessible(true);
+    } catch (RuntimeException e) {
+      // SecurityException, or InaccessibleObjectException on Java 9+: public members of public classes remain readable
+    }
+    return member;
+  }
+
+  private static final class MethodAccessor extends Accessor {
+
+    private final Method method;
+
+    MethodAccessor(Method method) {
+      this.method = method;
+    }
+
+    @Override
+    Object read(Object bean) {
+      try {
+        return method.invoke(bean);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      } catch (InvocationTargetException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+  }
+
+  private static final class FieldAccessor extends Accessor {
+
+    private final Field field;
+
+    FieldAccessor(Field field) {
+      this.field = field;
+    }
+
+    @Override
+    Object read(Object bean) {
+      try {
+        return field.get(bean);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
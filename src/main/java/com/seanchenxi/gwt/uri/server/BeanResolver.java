@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.server;
+
+import com.seanchenxi.gwt.uri.template.VariableResolver;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * Resolves the variables of a template from the properties of an object, without copying them into a map first:
+ * </p>
+ * <pre>
+ *   template.expand(BeanResolver.of(user));
+ * </pre>
+ * <p>
+ * A variable <code>name</code> is read from, in this order, a <code>getName()</code> or <code>isName()</code>
+ * getter, a <code>name()</code> method (as declared by records), or a public <code>name</code> field.
+ * A dotted variable name (<code>user.id</code>) reads the nested property. Missing properties are undefined,
+ * and {@link Map} instances are read by key.
+ * </p>
+ * <p>
+ * Accessors are looked up once per class and variable name, then cached; only the properties referenced by the
+ * expanded template are ever read. This class is JVM only, it is not part of the GWT module.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class BeanResolver implements VariableResolver {
+
+  public static BeanResolver of(Object bean) {
+    return new BeanResolver(bean);
+  }
+
+  private final Object bean;
+
+  private BeanResolver(Object bean) {
+    this.bean = bean;
+  }
+
+  @Override
+  public Object resolve(int slot, String name) {
+    return read(bean, name);
+  }
+
+  static Object read(Object bean, String name) {
+    if (bean == null) {
+      return null;
+    }
+    if (bean instanceof Map) {
+      Object value = ((Map<?, ?>) bean).get(name);
+      int dot = name.indexOf('.');
+      if (value != null || dot < 0) {
+        return value;
+      }
+      return read(((Map<?, ?>) bean).get(name.substring(0, dot)), name.substring(dot + 1));
+    }
+    return BeanAccessors.forClass(bean.getClass()).get(name).read(bean);
+  }
+}
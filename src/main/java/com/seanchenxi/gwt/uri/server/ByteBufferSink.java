@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.server;
+
+import com.seanchenxi.gwt.uri.template.ByteSink;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Writes expansions straight into a byte buffer, as UTF-8:
+ * </p>
+ * <pre>
+ *   template.expandTo(values, new ByteBufferSink(buffer));
+ * </pre>
+ * <p>
+ * A <code>BufferOverflowException</code> is thrown if the buffer has not enough remaining space.
+ * This class is JVM only, it is not part of the GWT module.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class ByteBufferSink extends ByteSink {
+
+  private final ByteBuffer buffer;
+
+  public ByteBufferSink(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  @Override
+  protected void write(byte b) {
+    buffer.put(b);
+  }
+
+  @Override
+  protected void write(byte[] bytes, int offset, int length) {
+    buffer.put(bytes, offset, length);
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Minimal writer of class files, holding just what {@link ExpanderGenerator} needs: public methods made of
+ * local variable, constant, type check, invocation and branch instructions, without exception handlers.
+ * </p>
+ * <p>
+ * Classes are written in the Java 5 format, verified by type inference, so that no stack map frame has to be
+ * computed for the branches.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+final class ClassEmitter {
+
+  /**
+   * Thrown when the class would exceed a limit of the class file format.
+   */
+  static final class TooLargeException extends IllegalStateException {
+
+    TooLargeException(String message) {
+      super(message);
+    }
+  }
+
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  static final int ICONST_0 = 0x03;
+  static final int ICONST_1 = 0x04;
+  static final int AALOAD = 0x32;
+  static final int POP = 0x57;
+  static final int DUP = 0x59;
+  static final int IFEQ = 0x99;
+  static final int GOTO = 0xa7;
+  static final int IRETURN = 0xac;
+  static final int RETURN = 0xb1;
+  static final int GETSTATIC = 0xb2;
+  static final int INVOKEVIRTUAL = 0xb6;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int CHECKCAST = 0xc0;
+  static final int INSTANCEOF = 0xc1;
+  static final int IFNULL = 0xc6;
+
+  private static final int VERSION = 49;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+
+  private final DataOutputStream pool = new DataOutputStream(poolBytes);
+
+  private final Map<String, Integer> constants = new HashMap<String, Integer>();
+
+  private int poolSize = 1;
+
+  private final int thisClass;
+
+  private final int superClass;
+
+  private final List<byte[]> methods = new ArrayList<byte[]>();
+
+  /**
+   * @param name      the internal name of the class, e.g. <code>com/example/Foo</code>
+   * @param superName the internal name of its super class
+   */
+  ClassEmitter(String name, String superName) {
+    this.thisClass = classRef(name);
+    this.superClass = classRef(superName);
+  }
+
+  /**
+   * @param arguments the number of local variables taken by the arguments, including <code>this</code>
+   */
+  Code method(String name, String descriptor, int arguments) {
+    return new Code(name, descriptor, arguments);
+  }
+
+  byte[] toByteArray() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(VERSION);
+      out.writeShort(poolSize);
+      poolBytes.writeTo(out);
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0);
+      out.writeShort(0);
+      out.writeShort(methods.size());
+      for (byte[] method : methods) {
+        out.write(method);
+      }
+      out.writeShort(0);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private int utf8(String value) {
+    Integer index = constants.get("U" + value);
+    if (index != null) {
+      return index;
+    }
+    try {
+      pool.writeByte(CONSTANT_UTF8);
+      // fails for constants longer than 65535 bytes
+      pool.writeUTF(value);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return register("U" + value);
+  }
+
+  private int classRef(String name) {
+    return constant("C" + name, CONSTANT_CLASS, utf8(name), -1);
+  }
+
+  private int string(String value) {
+    return constant("S" + value, CONSTANT_STRING, utf8(value), -1);
+  }
+
+  private int memberRef(int tag, String owner, String name, String descriptor) {
+    int nameAndType = constant("N" + name + ' ' + descriptor, CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor));
+    return constant(tag + owner + '.' + name + ' ' + descriptor, tag, classRef(owner), nameAndType);
+  }
+
+  /**
+   * @param second the second index of the constant, or -1 if it only has one
+   */
+  private int constant(String key, int tag, int first, int second) {
+    Integer index = constants.get(key);
+    if (index != null) {
+      return index;
+    }
+    try {
+      pool.writeByte(tag);
+      pool.writeShort(first);
+      if (second >= 0) {
+        pool.writeShort(second);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return register(key);
+  }
+
+  private int register(String key) {
+    if (poolSize == 0xFFFF) {
+      throw new TooLargeException("Too many constants");
+    }
+    constants.put(key, poolSize);
+    return poolSize++;
+  }
+
+  /**
+   * The instructions of a public method, appended one after the other.
+   */
+  final class Code {
+
+    private static final int MAX_STACK = 8;
+
+    private final int name;
+
+    private final int descriptor;
+
+    private int maxLocals;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream code = new DataOutputStream(bytes);
+
+    private final List<Integer> labels = new ArrayList<Integer>();
+
+    /**
+     * Positions of the branch instructions, each followed by the label it jumps to
+     */
+    private final List<Integer> jumps = new ArrayList<Integer>();
+
+    private Code(String name, String descriptor, int arguments) {
+      this.name = utf8(name);
+      this.descriptor = utf8(descriptor);
+      this.maxLocals = arguments;
+    }
+
+    Code op(int opcode) {
+      return write(opcode, -1, 0);
+    }
+
+    Code aload(int local) {
+      maxLocals = Math.max(maxLocals, local + 1);
+      return local <= 3 ? op(0x2a + local) : write(0x19, local, 1);
+    }
+
+    Code astore(int local) {
+      maxLocals = Math.max(maxLocals, local + 1);
+      return local <= 3 ? op(0x4b + local) : write(0x3a, local, 1);
+    }
+
+    Code iload(int local) {
+      maxLocals = Math.max(maxLocals, local + 1);
+      return local <= 3 ? op(0x1a + local) : write(0x15, local, 1);
+    }
+
+    Code istore(int local) {
+      maxLocals = Math.max(maxLocals, local + 1);
+      return local <= 3 ? op(0x3b + local) : write(0x36, local, 1);
+    }
+
+    Code push(int value) {
+      if (value >= -1 && value <= 5) {
+        return op(ICONST_0 + value);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        return write(0x10, value & 0xFF, 1);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        return write(0x11, value & 0xFFFF, 2);
+      }
+      throw new TooLargeException("Constant too large: " + value);
+    }
+
+    Code ldc(String value) {
+      int index = string(value);
+      return index < 256 ? write(0x12, index, 1) : write(0x13, index, 2);
+    }
+
+    /**
+     * @param opcode {@link #CHECKCAST} or {@link #INSTANCEOF}
+     */
+    Code type(int opcode, String type) {
+      return write(opcode, classRef(type), 2);
+    }
+
+    Code field(int opcode, String owner, String name, String descriptor) {
+      return write(opcode, memberRef(CONSTANT_FIELDREF, owner, name, descriptor), 2);
+    }
+
+    Code invoke(int opcode, String owner, String name, String descriptor) {
+      return write(opcode, memberRef(CONSTANT_METHODREF, owner, name, descriptor), 2);
+    }
+
+    int newLabel() {
+      labels.add(-1);
+      return labels.size() - 1;
+    }
+
+    Code mark(int label) {
+      labels.set(label, bytes.size());
+      return this;
+    }
+
+    Code jump(int opcode, int label) {
+      jumps.add(bytes.size());
+      jumps.add(label);
+      return write(opcode, 0, 2);
+    }
+
+    /**
+     * Adds the method to the class, its branches resolved.
+     */
+    void end() {
+      byte[] instructions = bytes.toByteArray();
+      for (int i = 0; i < jumps.size(); i += 2) {
+        int position = jumps.get(i);
+        int offset = labels.get(jumps.get(i + 1)) - position;
+        if (offset != (short) offset) {
+          throw new TooLargeException("Method too large");
+        }
+        instructions[position + 1] = (byte) (offset >> 8);
+        instructions[position + 2] = (byte) offset;
+      }
+      ByteArrayOutputStream method = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(method);
+      try {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(utf8("Code"));
+        out.writeInt(12 + instructions.length);
+        out.writeShort(MAX_STACK);
+        out.writeShort(maxLocals);
+        out.writeInt(instructions.length);
+        out.write(instructions);
+        out.writeShort(0);
+        out.writeShort(0);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      if (instructions.length > 0xFFFF) {
+        throw new TooLargeException("Method too large");
+      }
+      methods.add(method.toByteArray());
+    }
+
+    /**
+     * @param size the number of bytes of the operand, 0 if none
+     */
+    private Code write(int opcode, int operand, int size) {
+      if (size == 1 && operand > 0xFF) {
+        throw new TooLargeException("Too many local variables");
+      }
+      try {
+        code.writeByte(opcode);
+        if (size == 1) {
+          code.writeByte(operand);
+        } else if (size == 2) {
+          code.writeShort(operand);
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      return this;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.server;
+
+import com.seanchenxi.gwt.uri.template.CompiledTemplate;
+import com.seanchenxi.gwt.uri.template.EncodeRule;
+import com.seanchenxi.gwt.uri.template.EncodingCache;
+import com.seanchenxi.gwt.uri.template.TemplateListener;
+import com.seanchenxi.gwt.uri.template.UriTemplates;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Expands one template, as its {@link CompiledTemplate} would, see {@link ExpanderGenerator}.
+ * </p>
+ * <p>
+ * Values are given by slot, in the order of {@link CompiledTemplate#getVariableNames()}. Expanders are immutable,
+ * and can be shared between threads.
+ * </p>
+ * <p>
+ * This class is JVM only, it is not part of the GWT module.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public abstract class Expander {
+
+  private final CompiledTemplate template;
+
+  private final EncodingCache cache;
+
+  private final CompiledTemplate[] expressions;
+
+  private final int[][] expressionSlots;
+
+  /**
+   * @param expressions     the expressions to fall back to, by index, each compiled on its own
+   * @param expressionSlots for each of these expressions, the slots of its variables in the template
+   */
+  protected Expander(CompiledTemplate template, EncodingCache cache, CompiledTemplate[] expressions,
+                     int[][] expressionSlots) {
+    this.template = template;
+    this.cache = cache;
+    this.expressions = expressions;
+    this.expressionSlots = expressionSlots;
+  }
+
+  public CompiledTemplate getTemplate() {
+    return template;
+  }
+
+  /**
+   * @return whether this expander runs generated code, or the interpreter
+   */
+  public abstract boolean isGenerated();
+
+  /**
+   * @param values the variable values by slot, only read
+   * @throws IllegalArgumentException if the array is shorter than the number of variables
+   */
+  public String expand(Object[] values) {
+    TemplateListener listener = UriTemplates.getListener();
+    long start = listener == TemplateListener.NONE ? 0L : listener.time();
+    StringBuilder out = new StringBuilder(template.getLengthHint());
+    expandTo(values, out);
+    template.recordLength(out.length());
+    if (listener != TemplateListener.NONE) {
+      listener.onExpand(template, out.length(), listener.time() - start);
+    }
+    return out.toString();
+  }
+
+  public String expand(Map<String, Object> values) {
+    List<String> names = template.getVariableNames();
+    Object[] slots = new Object[names.size()];
+    for (int i = 0; values != null && i < slots.length; i++) {
+      slots[i] = values.get(names.get(i));
+    }
+    return expand(slots);
+  }
+
+  public void expandTo(Object[] values, StringBuilder out) {
+    if (values.length < template.getVariableNames().size()) {
+      throw new IllegalArgumentException("Expected " + template.getVariableNames().size() + " values, got "
+          + values.length);
+    }
+    execute(values, out);
+  }
+
+  /**
+   * @param values the variable values by slot, at least one per variable
+   */
+  protected abstract void execute(Object[] values, StringBuilder out);
+
+  /**
+   * @return the string of a simple value, or null if the value is undefined or composite
+   */
+  protected static String scalar(Object value) {
+    if (value instanceof String) {
+      return (String) value;
+    } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+      return String.valueOf(value);
+    }
+    return null;
+  }
+
+  /**
+   * @param maxLength the maximum number of characters to encode, or 0 to encode them all
+   */
+  protected final void encode(StringBuilder out, EncodeRule rule, String value, int maxLength) {
+    try {
+      if (maxLength > 0 && value.length() > maxLength) {
+        rule.encodeTo(value, maxLength, out);
+        return;
+      }
+      EncodingCache cache = this.cache == null ? EncodingCache.getGlobal() : this.cache;
+      if (cache == null) {
+        rule.encodeTo(value, out);
+      } else {
+        out.append(cache.encode(rule, value));
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Expands the given expression through the interpreter, for the values generated code does not handle.
+   */
+  protected final void fallback(int expression, Object[] values, StringBuilder out) {
+    int[] slots = expressionSlots[expression];
+    Object[] expressionValues = new Object[slots.length];
+    for (int i = 0; i < slots.length; i++) {
+      expressionValues[i] = values[slots[i]];
+    }
+    expressions[expression].expandTo(expressionValues, out);
+  }
+
+  /**
+   * Delegates to the {@link CompiledTemplate}, when no code could be generated.
+   */
+  static final class Interpreted extends Expander {
+
+    Interpreted(CompiledTemplate template) {
+      super(template, null, null, null);
+    }
+
+    @Override
+    public boolean isGenerated() {
+      return false;
+    }
+
+    @Override
+    protected void execute(Object[] values, StringBuilder out) {
+      getTemplate().expandTo(values, out);
+    }
+  }
+}
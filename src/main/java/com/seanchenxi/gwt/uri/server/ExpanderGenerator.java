@@ -0,0 +1,299 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.server;
+
+import com.seanchenxi.gwt.uri.template.CompiledTemplate;
+import com.seanchenxi.gwt.uri.template.EncodingCache;
+import com.seanchenxi.gwt.uri.template.Expression;
+import com.seanchenxi.gwt.uri.template.Literal;
+import com.seanchenxi.gwt.uri.template.Modifier;
+import com.seanchenxi.gwt.uri.template.Operator;
+import com.seanchenxi.gwt.uri.template.PrefixVarSpec;
+import com.seanchenxi.gwt.uri.template.TemplatePartial;
+import com.seanchenxi.gwt.uri.template.UriTemplate;
+import com.seanchenxi.gwt.uri.template.UriTemplateBuilder;
+import com.seanchenxi.gwt.uri.template.VarSpec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.AALOAD;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.CHECKCAST;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.DUP;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.GETSTATIC;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.GOTO;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.ICONST_0;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.ICONST_1;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.IFEQ;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.IFNULL;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.INVOKESPECIAL;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.INVOKESTATIC;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.INVOKEVIRTUAL;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.IRETURN;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.POP;
+import static com.seanchenxi.gwt.uri.server.ClassEmitter.RETURN;
+
+/**
+ * <p>
+ * Generates a class dedicated to the expansion of one template, for the hottest templates.
+ * </p>
+ * <p>
+ * The generated code appends the encoded literals as constants, and unrolls each expression: its variables are
+ * read from their slots, and simple values (strings, numbers, booleans and characters) written with the separators
+ * and names of the operator inlined, and encoded by the {@link com.seanchenxi.gwt.uri.template.EncodeRule} of
+ * the operator. An expression with a composite value (list, associative array, pre-encoded value...) or
+ * an exploded variable is expanded by the interpreter.
+ * </p>
+ * <p>
+ * When no class can be generated (foreign {@link TemplatePartial} implementations, templates exceeding the limits
+ * of a class file, class definition denied by a security manager), the returned expander runs the interpreter,
+ * see {@link Expander#isGenerated()}. Any other failure is a bug of the generator, and is thrown.
+ * Each generated class has its own class loader, so that it is unloaded with its expander.
+ * </p>
+ * <p>
+ * This class is JVM only, it is not part of the GWT module.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class ExpanderGenerator {
+
+  private static final String EXPANDER = "com/seanchenxi/gwt/uri/server/Expander";
+  private static final String OBJECT = "java/lang/Object";
+  private static final String STRING = "java/lang/String";
+  private static final String STRING_BUILDER = "java/lang/StringBuilder";
+  private static final String ENCODE_RULE = "com/seanchenxi/gwt/uri/template/EncodeRule";
+  private static final String COMPILED_TEMPLATE = "com/seanchenxi/gwt/uri/template/CompiledTemplate";
+  private static final String ENCODING_CACHE = "com/seanchenxi/gwt/uri/template/EncodingCache";
+
+  private static final String APPEND = "(L" + STRING + ";)L" + STRING_BUILDER + ";";
+
+  /**
+   * Local variables of the generated <code>execute</code> method
+   */
+  private static final int THIS = 0;
+  private static final int VALUES = 1;
+  private static final int OUT = 2;
+  private static final int IS_FIRST = 3;
+  private static final int FIRST_VALUE = 4;
+
+  private static final AtomicInteger COUNT = new AtomicInteger();
+
+  /**
+   * @see UriTemplateBuilder#create(String)
+   */
+  public static Expander generate(String template) {
+    return generate(UriTemplateBuilder.create(template).build());
+  }
+
+  public static Expander generate(UriTemplate template) {
+    CompiledTemplate compiled = template.compile();
+    if (hasForeignPartials(template.getPartials())) {
+      return new Expander.Interpreted(compiled);
+    }
+    try {
+      return new ExpanderGenerator(template, compiled).generate();
+    } catch (ClassEmitter.TooLargeException e) {
+      return new Expander.Interpreted(compiled);
+    } catch (SecurityException e) {
+      return new Expander.Interpreted(compiled);
+    }
+  }
+
+  private static boolean hasForeignPartials(List<TemplatePartial> partials) {
+    for (TemplatePartial partial : partials) {
+      if (partial instanceof UriTemplate) {
+        if (hasForeignPartials(((UriTemplate) partial).getPartials())) {
+          return true;
+        }
+      } else if (!(partial instanceof Literal || partial instanceof Expression || partial instanceof VarSpec)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private final UriTemplate template;
+
+  private final CompiledTemplate compiled;
+
+  private final List<CompiledTemplate> expressions = new ArrayList<CompiledTemplate>();
+
+  private final List<int[]> expressionSlots = new ArrayList<int[]>();
+
+  private ExpanderGenerator(UriTemplate template, CompiledTemplate compiled) {
+    this.template = template;
+    this.compiled = compiled;
+  }
+
+  private Expander generate() {
+    String name = EXPANDER + "$Generated" + COUNT.incrementAndGet();
+    ClassEmitter emitter = new ClassEmitter(name, EXPANDER);
+    String constructor = "(L" + COMPILED_TEMPLATE + ";L" + ENCODING_CACHE + ";[L" + COMPILED_TEMPLATE + ";[[I)V";
+    emitter.method("<init>", constructor, 5)
+        .aload(0).aload(1).aload(2).aload(3).aload(4)
+        .invoke(INVOKESPECIAL, EXPANDER, "<init>", constructor)
+        .op(RETURN)
+        .end();
+    emitter.method("isGenerated", "()Z", 1)
+        .op(ICONST_1).op(IRETURN)
+        .end();
+
+    List<Object> parts = new ArrayList<Object>();
+    flatten(template.getPartials(), parts);
+    ClassEmitter.Code code = emitter.method("execute", "([L" + OBJECT + ";L" + STRING_BUILDER + ";)V", 3);
+    for (Object part : parts) {
+      if (part instanceof String) {
+        code.aload(OUT).ldc((String) part).invoke(INVOKEVIRTUAL, STRING_BUILDER, "append", APPEND).op(POP);
+      } else {
+        emitExpression(code, (Expression) part);
+      }
+    }
+    code.op(RETURN).end();
+
+    byte[] bytes = emitter.toByteArray();
+    Class<?> type = new Loader(Expander.class.getClassLoader()).define(name.replace('/', '.'), bytes);
+    try {
+      return (Expander) type.getConstructor(CompiledTemplate.class, EncodingCache.class, CompiledTemplate[].class,
+          int[][].class).newInstance(compiled, template.getEncodingCache(),
+          expressions.toArray(new CompiledTemplate[expressions.size()]),
+          expressionSlots.toArray(new int[expressionSlots.size()][]));
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Splits the template into encoded literals, each literal being encoded on its own as when compiled,
+   * and expressions. Foreign partials were ruled out before.
+   */
+  private void flatten(List<TemplatePartial> partials, List<Object> parts) {
+    for (TemplatePartial partial : partials) {
+      if (partial instanceof UriTemplate) {
+        flatten(((UriTemplate) partial).getPartials(), parts);
+      } else if (partial instanceof Literal) {
+        String literal = ((Literal) partial).getValue();
+        if (literal != null && !literal.isEmpty()) {
+          parts.add(new UriTemplate(Collections.<TemplatePartial>singletonList(partial), null).expand(null));
+        }
+      } else if (partial instanceof Expression) {
+        parts.add(partial);
+      } else {
+        parts.add(new Expression(Operator.NUL, Collections.singletonList((VarSpec) partial)));
+      }
+    }
+  }
+
+  private void emitExpression(ClassEmitter.Code code, Expression expression) {
+    int index = fallback(expression);
+    Operator operator = expression.getOperator();
+    List<VarSpec> varSpecs = expression.getVarSpecs();
+    int fallback = code.newLabel();
+    int end = code.newLabel();
+    for (VarSpec varSpec : varSpecs) {
+      if (varSpec.is(Modifier.EXPLODE)) {
+        code.aload(THIS).push(index).aload(VALUES).aload(OUT)
+            .invoke(INVOKEVIRTUAL, EXPANDER, "fallback", "(I[L" + OBJECT + ";L" + STRING_BUILDER + ";)V");
+        return;
+      }
+    }
+    // reads the values, falling back to the interpreter for composite ones
+    for (int i = 0; i < varSpecs.size(); i++) {
+      int next = code.newLabel();
+      code.aload(VALUES).push(compiled.slotOf(varSpecs.get(i).getName())).op(AALOAD)
+          .op(DUP).astore(FIRST_VALUE + i).jump(IFNULL, next)
+          .aload(FIRST_VALUE + i).invoke(INVOKESTATIC, EXPANDER, "scalar", "(L" + OBJECT + ";)L" + STRING + ";")
+          .op(DUP).astore(FIRST_VALUE + i).jump(IFNULL, fallback)
+          .mark(next);
+    }
+
+    code.op(ICONST_1).istore(IS_FIRST);
+    for (int i = 0; i < varSpecs.size(); i++) {
+      VarSpec varSpec = varSpecs.get(i);
+      String name = operator.isNamed() ? varSpec.getName() : "";
+      int skip = code.newLabel();
+      code.aload(FIRST_VALUE + i).jump(IFNULL, skip);
+      if (i == 0) {
+        append(code, operator.getFirst() + name);
+      } else {
+        int separator = code.newLabel();
+        int appended = code.newLabel();
+        code.aload(OUT).iload(IS_FIRST).jump(IFEQ, separator)
+            .ldc(operator.getFirst() + name).jump(GOTO, appended)
+            .mark(separator).ldc(operator.getSep() + name)
+            .mark(appended).invoke(INVOKEVIRTUAL, STRING_BUILDER, "append", APPEND).op(POP);
+      }
+      code.op(ICONST_0).istore(IS_FIRST);
+      if (operator.isNamed()) {
+        int equal = code.newLabel();
+        int value = code.newLabel();
+        code.aload(FIRST_VALUE + i).type(CHECKCAST, STRING).invoke(INVOKEVIRTUAL, STRING, "isEmpty", "()Z")
+            .jump(IFEQ, equal);
+        append(code, operator.getIfemp());
+        code.jump(GOTO, value).mark(equal);
+        append(code, "=");
+        code.mark(value);
+      }
+      int maxLength = varSpec instanceof PrefixVarSpec ? ((PrefixVarSpec) varSpec).getMaxLength() : 0;
+      code.aload(THIS).aload(OUT)
+          .field(GETSTATIC, ENCODE_RULE, operator.getAllow().name(), "L" + ENCODE_RULE + ";")
+          .aload(FIRST_VALUE + i).type(CHECKCAST, STRING).push(maxLength)
+          .invoke(INVOKEVIRTUAL, EXPANDER, "encode", "(L" + STRING_BUILDER + ";L" + ENCODE_RULE + ";L" + STRING + ";I)V")
+          .mark(skip);
+    }
+    code.jump(GOTO, end)
+        .mark(fallback)
+        .aload(THIS).push(index).aload(VALUES).aload(OUT)
+        .invoke(INVOKEVIRTUAL, EXPANDER, "fallback", "(I[L" + OBJECT + ";L" + STRING_BUILDER + ";)V")
+        .mark(end);
+  }
+
+  private static void append(ClassEmitter.Code code, String constant) {
+    if (!constant.isEmpty()) {
+      code.aload(OUT).ldc(constant).invoke(INVOKEVIRTUAL, STRING_BUILDER, "append", APPEND).op(POP);
+    }
+  }
+
+  /**
+   * @return the index of the expression compiled on its own, for the interpreter
+   */
+  private int fallback(Expression expression) {
+    CompiledTemplate compiled = new UriTemplate(Collections.<TemplatePartial>singletonList(expression), null,
+        template.getEncodingCache()).compile();
+    List<String> names = compiled.getVariableNames();
+    int[] slots = new int[names.size()];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = this.compiled.slotOf(names.get(i));
+    }
+    expressions.add(compiled);
+    expressionSlots.add(slots);
+    return expressions.size() - 1;
+  }
+
+  private static final class Loader extends ClassLoader {
+
+    Loader(ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.server;
+
+import com.seanchenxi.gwt.uri.template.CacheStats;
+import com.seanchenxi.gwt.uri.template.CompiledTemplate;
+import com.seanchenxi.gwt.uri.template.EncodingCache;
+import com.seanchenxi.gwt.uri.template.TemplateListener;
+import com.seanchenxi.gwt.uri.template.UriTemplates;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Collects the number of expansions of each template, with histograms of their durations and lengths,
+ * along with the parsing durations, parse failures and lookups of the template cache.
+ * </p>
+ * <p>
+ * Templates are told apart by their string, so that equal templates compiled separately add up. Durations are in
+ * nanoseconds. Recording is lock-free, histograms having one counter per power of two.
+ * </p>
+ * <p>
+ * At most a given number of templates are tracked one by one, the first ones to be expanded: once that many are
+ * tracked, the expansions of other templates add up in the {@link #getUntracked() untracked} statistics, so that
+ * applications building templates dynamically don't grow the metrics forever.
+ * </p>
+ * <p>
+ * Only the expansions notifying {@link TemplateListener#onExpand} are recorded: see there which ones do.
+ * </p>
+ * <p>
+ * This class is JVM only, it is not part of the GWT module.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class TemplateMetrics implements TemplateListener {
+
+  public static final int DEFAULT_MAX_TEMPLATES = 1024;
+
+  /**
+   * @return new metrics, notified from now on of all templates
+   * @see UriTemplates#setListener(TemplateListener)
+   */
+  public static TemplateMetrics install() {
+    return install(DEFAULT_MAX_TEMPLATES);
+  }
+
+  /**
+   * @param maxTemplates the maximum number of templates tracked one by one
+   * @return new metrics, notified from now on of all templates
+   */
+  public static TemplateMetrics install(int maxTemplates) {
+    TemplateMetrics metrics = new TemplateMetrics(maxTemplates);
+    UriTemplates.setListener(metrics);
+    return metrics;
+  }
+
+  private final int maxTemplates;
+
+  private final ConcurrentMap<String, TemplateStats> templates = new ConcurrentHashMap<String, TemplateStats>();
+
+  /**
+   * The number of entries of {@link #templates}, reserved before adding them
+   */
+  private final AtomicInteger tracked = new AtomicInteger();
+
+  private final TemplateStats untracked = new TemplateStats(null);
+
+  private final Histogram parseTimes = new Histogram();
+
+  private final AtomicLong parseFailures = new AtomicLong();
+
+  private final AtomicLong cacheHits = new AtomicLong();
+
+  private final AtomicLong cacheMisses = new AtomicLong();
+
+  public TemplateMetrics() {
+    this(DEFAULT_MAX_TEMPLATES);
+  }
+
+  /**
+   * @param maxTemplates the maximum number of templates tracked one by one
+   */
+  public TemplateMetrics(int maxTemplates) {
+    if (maxTemplates < 0) {
+      throw new IllegalArgumentException("The maximum number of templates cannot be negative");
+    }
+    this.maxTemplates = maxTemplates;
+  }
+
+  @Override
+  public long time() {
+    return System.nanoTime();
+  }
+
+  @Override
+  public void onParse(String raw, long time) {
+    parseTimes.record(time);
+  }
+
+  @Override
+  public void onParseFailure(String raw, RuntimeException e) {
+    parseFailures.incrementAndGet();
+  }
+
+  @Override
+  public void onCacheLookup(String raw, boolean hit) {
+    (hit ? cacheHits : cacheMisses).incrementAndGet();
+  }
+
+  @Override
+  public void onExpand(CompiledTemplate template, int length, long time) {
+    TemplateStats stats = templates.get(template.template());
+    if (stats == null) {
+      stats = track(template.template());
+    }
+    stats.times.record(time);
+    stats.lengths.record(length);
+  }
+
+  private TemplateStats track(String template) {
+    if (tracked.incrementAndGet() > maxTemplates) {
+      tracked.decrementAndGet();
+      TemplateStats stats = templates.get(template);
+      return stats == null ? untracked : stats;
+    }
+    TemplateStats created = new TemplateStats(template);
+    TemplateStats stats = templates.putIfAbsent(template, created);
+    if (stats != null) {
+      tracked.decrementAndGet();
+      return stats;
+    }
+    return created;
+  }
+
+  /**
+   * @return the statistics of the expanded templates, the most expanded first
+   */
+  public List<TemplateStats> getTemplates() {
+    List<TemplateStats> stats = new ArrayList<TemplateStats>(templates.values());
+    Collections.sort(stats, new Comparator<TemplateStats>() {
+      @Override
+      public int compare(TemplateStats a, TemplateStats b) {
+        long countA = a.getCount();
+        long countB = b.getCount();
+        return countA < countB ? 1 : countA > countB ? -1 : a.template.compareTo(b.template);
+      }
+    });
+    return stats;
+  }
+
+  /**
+   * @return the statistics of the given template, or null if it was not expanded, or not tracked
+   */
+  public TemplateStats getTemplate(String template) {
+    return templates.get(template);
+  }
+
+  /**
+   * @return the statistics of the expansions of all the templates not tracked one by one, with a null template
+   */
+  public TemplateStats getUntracked() {
+    return untracked;
+  }
+
+  public Histogram getParseTimes() {
+    return parseTimes;
+  }
+
+  public long getParseFailureCount() {
+    return parseFailures.get();
+  }
+
+  public long getCacheHitCount() {
+    return cacheHits.get();
+  }
+
+  public long getCacheMissCount() {
+    return cacheMisses.get();
+  }
+
+  /**
+   * @return the ratio of {@link UriTemplates#parse(String)} calls finding the template in the cache,
+   * or 1 when there was no call at all
+   */
+  public double getCacheHitRate() {
+    long hits = cacheHits.get();
+    long requests = hits + cacheMisses.get();
+    return requests == 0 ? 1.0 : (double) hits / requests;
+  }
+
+  /**
+   * @return the statistics of the global cache of encoded values
+   */
+  public CacheStats getEncodingStats() {
+    return EncodingCache.getGlobal().stats();
+  }
+
+  /**
+   * Forgets everything recorded so far.
+   */
+  public void reset() {
+    templates.clear();
+    tracked.set(0);
+    untracked.times.reset();
+    untracked.lengths.reset();
+    parseTimes.reset();
+    parseFailures.set(0);
+    cacheHits.set(0);
+    cacheMisses.set(0);
+  }
+
+  /**
+   * Statistics of the expansions of one template.
+   */
+  public static final class TemplateStats {
+
+    private final String template;
+
+    private final Histogram times = new Histogram();
+
+    private final Histogram lengths = new Histogram();
+
+    TemplateStats(String template) {
+      this.template = template;
+    }
+
+    public String getTemplate() {
+      return template;
+    }
+
+    public long getCount() {
+      return times.getCount();
+    }
+
+    /**
+     * @return the durations of the expansions, in nanoseconds
+     */
+    public Histogram getTimes() {
+      return times;
+    }
+
+    /**
+     * @return the lengths of the expansions, in characters, or in bytes when expanded into bytes
+     */
+    public Histogram getLengths() {
+      return lengths;
+    }
+
+    @Override
+    public String toString() {
+      return "TemplateStats{" +
+          "template='" + template + '\'' +
+          ", times=" + times +
+          ", lengths=" + lengths +
+          '}';
+    }
+  }
+
+  /**
+   * Distribution of positive values, counted by power of two: percentiles are the upper bounds of their buckets,
+   * at most twice the actual values.
+   */
+  public static final class Histogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram() {
+    }
+
+    void record(long value) {
+      value = Math.max(0L, value);
+      buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+      count.incrementAndGet();
+      sum.addAndGet(value);
+      long current;
+      while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        // retries until the maximum is at least this value
+      }
+    }
+
+    void reset() {
+      for (int i = 0; i < buckets.length(); i++) {
+        buckets.set(i, 0);
+      }
+      count.set(0);
+      sum.set(0);
+      max.set(0);
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getSum() {
+      return sum.get();
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+
+    public double getMean() {
+      long count = getCount();
+      return count == 0 ? 0.0 : (double) getSum() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return an upper bound of the given percentile of the recorded values, or 0 if none was recorded
+     */
+    public long getPercentile(double percentile) {
+      long total = 0;
+      for (int i = 0; i < buckets.length(); i++) {
+        total += buckets.get(i);
+      }
+      long rank = (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+      long seen = 0;
+      for (int i = 0; i < buckets.length(); i++) {
+        seen += buckets.get(i);
+        if (seen >= rank && seen > 0) {
+          long bound = i == 0 ? 0L : i == Long.SIZE ? Long.MAX_VALUE : (1L << i) - 1;
+          return Math.min(bound, getMax());
+        }
+      }
+      return 0L;
+    }
+
+    @Override
+    public String toString() {
+      return "Histogram{" +
+          "count=" + getCount() +
+          ", mean=" + getMean() +
+          ", p50=" + getPercentile(50) +
+          ", p99=" + getPercentile(99) +
+          ", max=" + getMax() +
+          '}';
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.template;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Immutable set of variable values, bound to a {@link CompiledTemplate} as its default values.
+ * </p>
+ * <p>
+ * Lists and associative arrays are copied when bound, so that later changes to the original
+ * collections are not visible to the templates sharing these bindings.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class Bindings {
+
+  public static final Bindings EMPTY = new Bindings(Collections.<String, Object>emptyMap());
+
+  public static Bindings of(Map<String, ?> values) {
+    if (values == null || values.isEmpty()) {
+      return EMPTY;
+    }
+    Map<String, Object> copy = new LinkedHashMap<String, Object>();
+    for (Map.Entry<String, ?> entry : values.entrySet()) {
+      if (entry.getValue() != null) {
+        copy.put(entry.getKey(), snapshot(entry.getValue()));
+      }
+    }
+    return new Bindings(Collections.unmodifiableMap(copy));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object snapshot(Object value) {
+    if (value instanceof Map) {
+      return Collections.unmodifiableMap(new LinkedHashMap<Object, Object>((Map<Object, Object>) value));
+    } else if (value instanceof Collection) {
+      return Collections.unmodifiableList(new ArrayList<Object>((Collection<Object>) value));
+    } else if (value instanceof Iterable) {
+      List<Object> list = new ArrayList<Object>();
+      for (Object item : (Iterable<Object>) value) {
+        list.add(item);
+      }
+      return Collections.unmodifiableList(list);
+    }
+    return value;
+  }
+
+  private final Map<String, Object> values;
+
+  private Bindings(Map<String, Object> values) {
+    this.values = values;
+  }
+
+  /**
+   * @return new bindings, with the given variable added or replaced
+   */
+  public Bindings with(String name, Object value) {
+    Map<String, Object> copy = new LinkedHashMap<String, Object>(values);
+    if (value == null) {
+      copy.remove(name);
+    } else {
+      copy.put(name, snapshot(value));
+    }
+    return copy.isEmpty() ? EMPTY : new Bindings(Collections.unmodifiableMap(copy));
+  }
+
+  public Object get(String name) {
+    return values.get(name);
+  }
+
+  public boolean isEmpty() {
+    return values.isEmpty();
+  }
+
+  /**
+   * @return an unmodifiable view of the bound values
+   */
+  public Map<String, Object> asMap() {
+    return values;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || (o instanceof Bindings && values.equals(((Bindings) o).values));
+  }
+
+  @Override
+  public int hashCode() {
+    return values.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "Bindings" + values;
+  }
+}
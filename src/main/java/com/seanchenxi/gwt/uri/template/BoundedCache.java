@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.template;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Size-bounded, thread-safe LRU map.
+ * </p>
+ * <p>
+ * Entries are spread over independently locked segments, each one being an access-ordered
+ * {@link LinkedHashMap} evicting its least recently used entry once full.
+ * Only GWT-emulated classes are used, so that the cache can be shared with client code.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+final class BoundedCache<K, V> {
+
+  private static final int MAX_SEGMENTS = 16;
+
+  private static final int MIN_SEGMENT_SIZE = 8;
+
+  private final Segment<K, V>[] segments;
+
+  private final int maximumSize;
+
+  @SuppressWarnings("unchecked")
+  BoundedCache(int maximumSize) {
+    if (maximumSize < 1) {
+      throw new IllegalArgumentException("Cache maximum size must be positive");
+    }
+    int count = 1;
+    while (count < MAX_SEGMENTS && count * 2 * MIN_SEGMENT_SIZE <= maximumSize) {
+      count <<= 1;
+    }
+    this.maximumSize = maximumSize;
+    this.segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      this.segments[i] = new Segment<K, V>(maximumSize / count);
+    }
+  }
+
+  V get(K key) {
+    return segmentFor(key).doGet(key);
+  }
+
+  void put(K key, V value) {
+    segmentFor(key).doPut(key, value);
+  }
+
+  void clear() {
+    for (Segment<K, V> segment : segments) {
+      segment.doClear();
+    }
+  }
+
+  int getMaximumSize() {
+    return maximumSize;
+  }
+
+  CacheStats stats() {
+    long hits = 0, misses = 0, evictions = 0;
+    int size = 0;
+    for (Segment<K, V> segment : segments) {
+      synchronized (segment) {
+        hits += segment.hits;
+        misses += segment.misses;
+        evictions += segment.evictions;
+        size += segment.size();
+      }
+    }
+    return new CacheStats(hits, misses, evictions, size, maximumSize);
+  }
+
+  private Segment<K, V> segmentFor(Object key) {
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    return segments[hash & (segments.length - 1)];
+  }
+
+  private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+    private final int capacity;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    synchronized V doGet(K key) {
+      V value = get(key);
+      if (value == null) {
+        misses++;
+      } else {
+        hits++;
+      }
+      return value;
+    }
+
+    synchronized void doPut(K key, V value) {
+      put(key, value);
+    }
+
+    synchronized void doClear() {
+      clear();
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      if (size() > capacity) {
+        evictions++;
+        return true;
+      }
+      return false;
+    }
+  }
+}
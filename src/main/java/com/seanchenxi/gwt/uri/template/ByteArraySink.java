@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.template;
+
+/**
+ * A {@link ByteSink} into a growing byte array.
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+final class ByteArraySink extends ByteSink {
+
+  private byte[] bytes;
+
+  private int length;
+
+  ByteArraySink(int capacity) {
+    this.bytes = new byte[Math.max(capacity, 16)];
+  }
+
+  int length() {
+    return length;
+  }
+
+  byte[] toByteArray() {
+    byte[] copy = new byte[length];
+    System.arraycopy(bytes, 0, copy, 0, length);
+    return copy;
+  }
+
+  @Override
+  protected void write(byte b) {
+    ensureCapacity(1);
+    bytes[length++] = b;
+  }
+
+  @Override
+  protected void write(byte[] bytes, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(bytes, offset, this.bytes, this.length, length);
+    this.length += length;
+  }
+
+  private void ensureCapacity(int more) {
+    if (length + more > bytes.length) {
+      byte[] grown = new byte[Math.max(length + more, bytes.length * 2)];
+      System.arraycopy(bytes, 0, grown, 0, length);
+      bytes = grown;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.template;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * An {@link Appendable} writing UTF-8 bytes instead of characters.
+ * </p>
+ * <p>
+ * Expansions are made of encoded literals and percent-encoded values, that is ASCII characters only, so they are
+ * written one byte per character, without any intermediate string. {@link CompiledTemplate} even writes its
+ * literals as bytes converted once, when compiled. Any other character (e.g. from a foreign
+ * {@link TemplatePartial}) is still written as UTF-8.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public abstract class ByteSink implements Appendable {
+
+  /**
+   * Replacement of unpaired surrogates, as done by {@link EncodeRule}
+   */
+  private static final byte REPLACEMENT = '?';
+
+  /**
+   * @return the ASCII bytes of the given string, or null if it holds other characters
+   */
+  static byte[] toAscii(String value) {
+    byte[] bytes = new byte[value.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80) {
+        return null;
+      }
+      bytes[i] = (byte) c;
+    }
+    return bytes;
+  }
+
+  private char highSurrogate;
+
+  protected abstract void write(byte b) throws IOException;
+
+  protected abstract void write(byte[] bytes, int offset, int length) throws IOException;
+
+  @Override
+  public ByteSink append(CharSequence csq) throws IOException {
+    return append(csq, 0, csq.length());
+  }
+
+  @Override
+  public ByteSink append(CharSequence csq, int start, int end) throws IOException {
+    for (int i = start; i < end; i++) {
+      append(csq.charAt(i));
+    }
+    return this;
+  }
+
+  @Override
+  public ByteSink append(char c) throws IOException {
+    if (highSurrogate != 0) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        writeUtf8(Character.toCodePoint(high, c));
+        return this;
+      }
+      write(REPLACEMENT);
+    }
+    if (c < 0x80) {
+      write((byte) c);
+    } else if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      write(REPLACEMENT);
+    } else {
+      writeUtf8(c);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a trailing unpaired surrogate, if any.
+   */
+  public void flush() throws IOException {
+    if (highSurrogate != 0) {
+      highSurrogate = 0;
+      write(REPLACEMENT);
+    }
+  }
+
+  private void writeUtf8(int codePoint) throws IOException {
+    if (codePoint < 0x800) {
+      write((byte) (0xC0 | (codePoint >> 6)));
+    } else {
+      if (codePoint < 0x10000) {
+        write((byte) (0xE0 | (codePoint >> 12)));
+      } else {
+        write((byte) (0xF0 | (codePoint >> 18)));
+        write((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+      }
+      write((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+    }
+    write((byte) (0x80 | (codePoint & 0x3F)));
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.template;
+
+/**
+ * Snapshot of the statistics of a bounded cache.
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class CacheStats {
+
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final int size;
+  private final int maximumSize;
+
+  CacheStats(long hitCount, long missCount, long evictionCount, int size, int maximumSize) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.size = size;
+    this.maximumSize = maximumSize;
+  }
+
+  CacheStats plus(CacheStats other) {
+    return new CacheStats(hitCount + other.hitCount, missCount + other.missCount,
+        evictionCount + other.evictionCount, size + other.size, maximumSize + other.maximumSize);
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getRequestCount() {
+    return hitCount + missCount;
+  }
+
+  /**
+   * @return the ratio of lookups that were hits, or 1 when there was no lookup at all
+   */
+  public double getHitRate() {
+    long requests = getRequestCount();
+    return requests == 0 ? 1.0 : (double) hitCount / requests;
+  }
+
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStats{" +
+        "hitCount=" + hitCount +
+        ", missCount=" + missCount +
+        ", evictionCount=" + evictionCount +
+        ", size=" + size +
+        ", maximumSize=" + maximumSize +
+        '}';
+  }
+}
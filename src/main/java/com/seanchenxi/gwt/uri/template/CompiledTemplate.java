@@ -0,0 +1,700 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.template;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.seanchenxi.gwt.uri.template.ExpansionProcessor.doPrint;
+import static com.seanchenxi.gwt.uri.template.ExpansionProcessor.encode;
+import static com.seanchenxi.gwt.uri.template.StringPool.COMMA;
+import static com.seanchenxi.gwt.uri.template.StringPool.EMPTY;
+import static com.seanchenxi.gwt.uri.template.StringPool.EQUAL;
+
+/**
+ * <p>
+ * Immutable expansion plan of a {@link UriTemplate}.
+ * </p>
+ * <p>
+ * The template partials are flattened once into an array of instructions, where literals, operator constants,
+ * variable specifiers and their modifiers are already resolved. Expansion is then a single loop over this array,
+ * writing every instruction into the same output buffer.
+ * </p>
+ * <p>
+ * Adjacent literals are merged into one instruction, already encoded as required by
+ * <a href="http://tools.ietf.org/html/rfc6570#section-3.1">Section 3.1 | RFC 6570</a>. The output buffer is
+ * sized from the length of these literals plus a moving average of the length written for the variables,
+ * so that it rarely needs to grow.
+ * </p>
+ * <p>
+ * Each distinct variable name is given a slot, its index in {@link #getVariableNames()}. Values are resolved once
+ * per expansion into an array of slots (or given directly as such an array, see {@link #expand(Object[])}),
+ * so that expressions read them by index, and skip at once when none of their variables is defined.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class CompiledTemplate {
+
+  /**
+   * Initial estimate of the length written for each expression
+   */
+  private static final int EXPRESSION_LENGTH_HINT = 16;
+
+  static CompiledTemplate compile(List<TemplatePartial> partials) {
+    return compile(partials, null);
+  }
+
+  /**
+   * @param cache the encoding cache used by this plan, or null to use the {@link EncodingCache#getGlobal() global} one
+   */
+  static CompiledTemplate compile(List<TemplatePartial> partials, EncodingCache cache) {
+    List<Instruction> instructions = new ArrayList<Instruction>();
+    List<String> variables = new ArrayList<String>();
+    StringBuilder template = new StringBuilder();
+    flatten(partials, instructions, variables, template, cache);
+    return new CompiledTemplate(template.toString(), instructions.toArray(new Instruction[instructions.size()]),
+        variables.toArray(new String[variables.size()]), Bindings.EMPTY);
+  }
+
+  private static void flatten(List<TemplatePartial> partials, List<Instruction> instructions, List<String> variables,
+                              StringBuilder template, EncodingCache cache) {
+    for (TemplatePartial partial : partials) {
+      if (partial instanceof UriTemplate) {
+        flatten(((UriTemplate) partial).getPartials(), instructions, variables, template, cache);
+        continue;
+      }
+      template.append(partial.template());
+      if (partial instanceof Literal) {
+        String literal = ((Literal) partial).getValue();
+        int last = instructions.size() - 1;
+        if (literal == null || literal.isEmpty()) {
+          continue;
+        } else if (last >= 0 && instructions.get(last).literal != null) {
+          instructions.set(last, new Instruction(instructions.get(last).literal + encodeLiteral(literal)));
+        } else {
+          instructions.add(new Instruction(encodeLiteral(literal)));
+        }
+      } else if (partial instanceof Expression) {
+        Expression expression = (Expression) partial;
+        List<VarSpec> varSpecs = expression.getVarSpecs();
+        instructions.add(new Instruction(expression.getOperator(), varSpecs.toArray(new VarSpec[varSpecs.size()]),
+            cache, variables));
+      } else if (partial instanceof VarSpec) {
+        instructions.add(new Instruction(Operator.NUL, new VarSpec[]{(VarSpec) partial}, cache, variables));
+      } else {
+        instructions.add(new Instruction(partial));
+      }
+    }
+  }
+
+  /**
+   * Encodes the characters of a literal that are not allowed in a URI, keeping its pct-encoded triplets.
+   */
+  static String encodeLiteral(String literal) {
+    StringBuilder out = null;
+    int start = 0;
+    for (int i = literal.indexOf('%'); i >= 0; i = literal.indexOf('%', i + 1)) {
+      if (i + 2 < literal.length() && Character.digit(literal.charAt(i + 1), 16) >= 0
+          && Character.digit(literal.charAt(i + 2), 16) >= 0) {
+        out = out == null ? new StringBuilder(literal.length() + 16) : out;
+        out.append(EncodeRule.U_R.encode(literal.substring(start, i))).append(literal, i, i + 3);
+        start = i + 3;
+      }
+    }
+    if (out == null) {
+      return EncodeRule.U_R.encode(literal);
+    }
+    return out.append(EncodeRule.U_R.encode(literal.substring(start))).toString();
+  }
+
+  private final String template;
+
+  private final Instruction[] instructions;
+
+  /**
+   * Total length of the literals, written by every expansion
+   */
+  private final int literalLength;
+
+  /**
+   * Moving average of the length written for the variables. Only a sizing hint: neither volatile, nor written
+   * once stable, so that threads expanding a shared template don't contend on it, and lost updates don't matter
+   */
+  private int variableLength;
+
+  private final String[] variables;
+
+  private final Bindings bindings;
+
+  /**
+   * The bound default values by slot, or null if there is none
+   */
+  private final Object[] defaults;
+
+  /**
+   * Whether some instructions delegate to foreign partials, which need their values as a map
+   */
+  private final boolean foreign;
+
+  private volatile TemplateMatcher matcher;
+
+  private CompiledTemplate(String template, Instruction[] instructions, String[] variables, Bindings bindings) {
+    this.template = template;
+    this.instructions = instructions;
+    this.variables = variables;
+    this.bindings = bindings;
+    if (bindings.isEmpty()) {
+      this.defaults = null;
+    } else {
+      this.defaults = new Object[variables.length];
+      for (int i = 0; i < variables.length; i++) {
+        this.defaults[i] = bindings.get(variables[i]);
+      }
+    }
+    boolean foreign = false;
+    int literalLength = 0;
+    int variableLength = 0;
+    for (Instruction instruction : instructions) {
+      foreign |= instruction.partial != null;
+      if (instruction.literal != null) {
+        literalLength += instruction.literal.length();
+      } else {
+        variableLength += EXPRESSION_LENGTH_HINT;
+      }
+    }
+    this.foreign = foreign;
+    this.literalLength = literalLength;
+    this.variableLength = variableLength;
+  }
+
+  public String template() {
+    return template;
+  }
+
+  Instruction[] getInstructions() {
+    return instructions;
+  }
+
+  public Bindings getBindings() {
+    return bindings;
+  }
+
+  /**
+   * @return a template sharing this plan, with the given default values
+   */
+  public CompiledTemplate bind(Bindings bindings) {
+    return new CompiledTemplate(template, instructions, variables, bindings == null ? Bindings.EMPTY : bindings);
+  }
+
+  /**
+   * @return the names of the variables, in the order of their slots
+   */
+  public List<String> getVariableNames() {
+    return Collections.unmodifiableList(Arrays.asList(variables));
+  }
+
+  /**
+   * @return the slot of the given variable, or -1 if the template has no such variable
+   */
+  public int slotOf(String name) {
+    for (int i = 0; i < variables.length; i++) {
+      if (variables[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the expected length of an expansion, to size its output buffer
+   */
+  public int getLengthHint() {
+    return literalLength + variableLength;
+  }
+
+  /**
+   * Adjusts the length hint to an expansion written without this template, by a generated expander for instance.
+   */
+  public void recordLength(int length) {
+    int average = variableLength;
+    int delta = (length - literalLength - average) / 8;
+    if (delta != 0) {
+      variableLength = average + delta;
+    }
+  }
+
+  /**
+   * @return the expansion with the bound default values only
+   */
+  public String expand() {
+    return expand((Map<String, Object>) null);
+  }
+
+  /**
+   * @param values the variable values, taking precedence over the bound default values
+   */
+  public String expand(Map<String, Object> values) {
+    TemplateListener listener = UriTemplates.listener;
+    long start = listener == TemplateListener.NONE ? 0L : listener.time();
+    StringBuilder out = newBuffer();
+    expandTo(values, out);
+    return toString(out, listener, start);
+  }
+
+  /**
+   * Writes the expansion into the given sink, without any intermediate string.
+   */
+  public void expandTo(Map<String, Object> values, Appendable out) throws IOException {
+    execute(resolve(values == null ? null : VariableResolvers.forMap(values)), values, out);
+  }
+
+  public void expandTo(Map<String, Object> values, StringBuilder out) {
+    try {
+      expandTo(values, (Appendable) out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param values the variable values by slot, taking precedence over the bound default values.
+   *               The array is only read, and may be reused by the caller between expansions.
+   * @throws IllegalArgumentException if the array is shorter than the number of variables
+   * @see #slotOf(String)
+   */
+  public String expand(Object[] values) {
+    TemplateListener listener = UriTemplates.listener;
+    long start = listener == TemplateListener.NONE ? 0L : listener.time();
+    StringBuilder out = newBuffer();
+    expandTo(values, out);
+    return toString(out, listener, start);
+  }
+
+  public void expandTo(Object[] values, Appendable out) throws IOException {
+    if (values.length < variables.length) {
+      throw new IllegalArgumentException("Expected " + variables.length + " values, got " + values.length);
+    }
+    Object[] slots = defaults == null ? values : resolve(VariableResolvers.forArray(values));
+    execute(slots, foreign ? toMap(slots) : null, out);
+  }
+
+  public void expandTo(Object[] values, StringBuilder out) {
+    try {
+      expandTo(values, (Appendable) out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param resolver resolves each variable once per expansion, its values taking precedence over the bound
+   *                 default values
+   */
+  public String expand(VariableResolver resolver) {
+    TemplateListener listener = UriTemplates.listener;
+    long start = listener == TemplateListener.NONE ? 0L : listener.time();
+    StringBuilder out = newBuffer();
+    expandTo(resolver, out);
+    return toString(out, listener, start);
+  }
+
+  public void expandTo(VariableResolver resolver, Appendable out) throws IOException {
+    Object[] slots = resolve(resolver);
+    execute(slots, foreign ? toMap(slots) : null, out);
+  }
+
+  public void expandTo(VariableResolver resolver, StringBuilder out) {
+    try {
+      expandTo(resolver, (Appendable) out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the expansion as UTF-8 bytes, written without any intermediate string
+   * @see ByteSink
+   */
+  public byte[] expandToBytes(Map<String, Object> values) {
+    TemplateListener listener = UriTemplates.listener;
+    long start = listener == TemplateListener.NONE ? 0L : listener.time();
+    ByteArraySink out = new ByteArraySink(getLengthHint());
+    try {
+      expandTo(values, out);
+      out.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    recordLength(out.length());
+    notify(listener, out.length(), start);
+    return out.toByteArray();
+  }
+
+  private StringBuilder newBuffer() {
+    return new StringBuilder(getLengthHint());
+  }
+
+  private String toString(StringBuilder out, TemplateListener listener, long start) {
+    recordLength(out.length());
+    notify(listener, out.length(), start);
+    return out.toString();
+  }
+
+  private void notify(TemplateListener listener, int length, long start) {
+    if (listener != TemplateListener.NONE) {
+      listener.onExpand(this, length, listener.time() - start);
+    }
+  }
+
+  private Object[] resolve(VariableResolver resolver) {
+    Object[] slots = new Object[variables.length];
+    for (int i = 0; i < slots.length; i++) {
+      Object value = resolver == null ? null : resolver.resolve(i, variables[i]);
+      slots[i] = value == null && defaults != null ? defaults[i] : value;
+    }
+    return slots;
+  }
+
+  private Map<String, Object> toMap(Object[] slots) {
+    Map<String, Object> values = new LinkedHashMap<String, Object>();
+    for (int i = 0; i < variables.length; i++) {
+      if (slots[i] != null) {
+        values.put(variables[i], slots[i]);
+      }
+    }
+    return values;
+  }
+
+  private void execute(Object[] slots, Map<String, Object> values, Appendable out) throws IOException {
+    ByteSink sink = out instanceof ByteSink ? (ByteSink) out : null;
+    for (Instruction instruction : instructions) {
+      if (sink != null && instruction.literalBytes != null) {
+        sink.write(instruction.literalBytes, 0, instruction.literalBytes.length);
+      } else if (instruction.literal != null) {
+        out.append(instruction.literal);
+      } else if (instruction.names != null) {
+        instruction.expandExpression(slots, out);
+      } else {
+        instruction.partial.expandTo(values, out);
+      }
+    }
+  }
+
+  /**
+   * Extracts the variables from a URI expanded by this template.
+   *
+   * @return the variable values, or null if the URI does not match this template
+   * @throws IllegalArgumentException if the template holds foreign {@link TemplatePartial} implementations
+   * @see TemplateMatcher
+   */
+  public Map<String, Object> match(String uri) {
+    TemplateMatcher matcher = this.matcher;
+    if (matcher == null) {
+      this.matcher = matcher = new TemplateMatcher(instructions);
+    }
+    return matcher.match(uri);
+  }
+
+  public boolean matches(String uri) {
+    return match(uri) != null;
+  }
+
+  /**
+   * Two plans are equal when they are compiled from the same template and have the same bindings.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof CompiledTemplate)) {
+      return false;
+    }
+    CompiledTemplate that = (CompiledTemplate) o;
+    return template.equals(that.template) && bindings.equals(that.bindings);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * template.hashCode() + bindings.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+
+  /**
+   * One step of the expansion plan: either a literal, an expression with its operator resolved,
+   * or (for foreign {@link TemplatePartial} implementations) a delegation to
+   * {@link TemplatePartial#expandTo(Map, Appendable)}.
+   * Variable specifiers are copied when compiled, so that an instruction never changes once created.
+   */
+  static final class Instruction {
+
+    final String literal;
+
+    /**
+     * The literal as ASCII bytes, for {@link ByteSink} outputs
+     */
+    final byte[] literalBytes;
+
+    final TemplatePartial partial;
+
+    final String first;
+    final String sep;
+    final String ifemp;
+    final boolean named;
+    final EncodeRule allow;
+    final EncodingCache cache;
+
+    final String[] names;
+    final Modifier[] modifiers;
+    final int[] maxLengths;
+    final int[] slots;
+
+    Instruction(String literal) {
+      this(literal, null, null, null, null, null);
+    }
+
+    Instruction(TemplatePartial partial) {
+      this(null, partial, null, null, null, null);
+    }
+
+    /**
+     * A standalone expression, with its own slots
+     */
+    Instruction(Operator operator, VarSpec... varSpecs) {
+      this(null, null, operator, varSpecs, null, new ArrayList<String>(varSpecs.length));
+    }
+
+    /**
+     * @param variables the slots of the template, new variable names get added to
+     */
+    Instruction(Operator operator, VarSpec[] varSpecs, EncodingCache cache, List<String> variables) {
+      this(null, null, operator, varSpecs, cache, variables);
+    }
+
+    private Instruction(String literal, TemplatePartial partial, Operator operator, VarSpec[] varSpecs,
+                        EncodingCache cache, List<String> variables) {
+      this.literal = literal;
+      this.literalBytes = literal == null ? null : ByteSink.toAscii(literal);
+      this.partial = partial;
+      this.cache = cache;
+      if (operator == null) {
+        this.first = this.sep = this.ifemp = null;
+        this.named = false;
+        this.allow = null;
+        this.names = null;
+        this.modifiers = null;
+        this.maxLengths = null;
+        this.slots = null;
+      } else {
+        this.first = operator.getFirst();
+        this.sep = operator.getSep();
+        this.ifemp = operator.getIfemp();
+        this.named = operator.isNamed();
+        this.allow = operator.getAllow();
+        this.names = new String[varSpecs.length];
+        this.modifiers = new Modifier[varSpecs.length];
+        this.maxLengths = new int[varSpecs.length];
+        this.slots = new int[varSpecs.length];
+        for (int i = 0; i < varSpecs.length; i++) {
+          this.names[i] = varSpecs[i].getName();
+          this.slots[i] = variables.indexOf(names[i]);
+          if (slots[i] < 0) {
+            this.slots[i] = variables.size();
+            variables.add(names[i]);
+          }
+          this.modifiers[i] = varSpecs[i].getModifier();
+          if (varSpecs[i] instanceof PrefixVarSpec) {
+            this.maxLengths[i] = ((PrefixVarSpec) varSpecs[i]).getMaxLength();
+          }
+        }
+      }
+    }
+
+    /**
+     * Expands a standalone expression, see {@link #Instruction(Operator, VarSpec...)}.
+     */
+    void execute(Map<String, Object> values, Appendable out) throws IOException {
+      Object[] slots = new Object[names.length];
+      for (int i = 0; values != null && i < names.length; i++) {
+        slots[this.slots[i]] = values.get(names[i]);
+      }
+      expandExpression(slots, out);
+    }
+
+    /**
+     * @return whether one of the variables of this expression is defined
+     */
+    boolean isPresent(Object[] values) {
+      for (int slot : slots) {
+        if (values[slot] != null) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void expandExpression(Object[] values, Appendable out) throws IOException {
+      if (!isPresent(values)) {
+        return;
+      }
+      EncodingCache cache = this.cache == null ? EncodingCache.getGlobal() : this.cache;
+      boolean isFirst = true;
+      for (int i = 0; i < names.length; i++) {
+        Object value = values[slots[i]];
+        if (value != null && expandVar(out, isFirst ? first : sep, i, value, cache)) {
+          isFirst = false;
+        }
+      }
+    }
+
+    /**
+     * Writes a variable straight from its value: items of lists and associative arrays are encoded one by one
+     * into the output, as they are iterated.
+     *
+     * @return false if nothing was written, an empty list or associative array being undefined
+     */
+    @SuppressWarnings("unchecked")
+    private boolean expandVar(Appendable out, String prefix, int i, Object value, EncodingCache cache)
+        throws IOException {
+      boolean explode = modifiers[i] == Modifier.EXPLODE;
+      if (value instanceof Map) {
+        Map<Object, Object> map = (Map<Object, Object>) value;
+        if (explode) {
+          return expandPairs(out, prefix, map, cache);
+        }
+        boolean written = false;
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+          if (entry.getKey() != null) {
+            written = expandItem(out, prefix, written, i, false, entry.getKey(), cache);
+          }
+          if (entry.getValue() != null) {
+            written = expandItem(out, prefix, written, i, false, entry.getValue(), cache);
+          }
+        }
+        return written;
+      } else if (value instanceof Iterable) {
+        boolean written = false;
+        for (Object item : (Iterable<Object>) value) {
+          if (item != null) {
+            written = expandItem(out, prefix, written, i, explode, item, cache);
+          }
+        }
+        return written;
+      }
+      if (value instanceof EncodedValue) {
+        EncodedValue encoded = (EncodedValue) value;
+        out.append(prefix);
+        if (named) {
+          out.append(names[i]).append(encoded.isEmpty() ? ifemp : EQUAL);
+        }
+        encoded.writeTo(out, allow, maxLengths[i]);
+        return true;
+      }
+      if (maxLengths[i] == 0 && ScalarWriter.isUnreserved(value)) {
+        // never empty, and never encoded
+        out.append(prefix);
+        if (named) {
+          out.append(names[i]).append(EQUAL);
+        }
+        ScalarWriter.write(value, out);
+        return true;
+      }
+      String string = String.valueOf(value);
+      out.append(prefix);
+      if (named) {
+        out.append(names[i]).append(string.isEmpty() ? ifemp : EQUAL);
+      }
+      if (maxLengths[i] > 0 && string.length() > maxLengths[i]) {
+        // the prefix is encoded straight from the whole value, never cached as it is not a value on its own
+        allow.encodeTo(string, maxLengths[i], out);
+      } else {
+        encode(out, allow, cache, string);
+      }
+      return true;
+    }
+
+    /**
+     * Writes one item of a list, or of a non exploded associative array.
+     *
+     * @param written whether previous items of the same variable were written
+     * @return true
+     */
+    private boolean expandItem(Appendable out, String prefix, boolean written, int i, boolean explode, Object item,
+                               EncodingCache cache) throws IOException {
+      EncodedValue encoded = item instanceof EncodedValue ? (EncodedValue) item : null;
+      boolean unreserved = encoded == null && maxLengths[i] == 0 && ScalarWriter.isUnreserved(item);
+      String string = encoded != null ? encoded.getValue() : unreserved ? null : doPrint(item, maxLengths[i]).trim();
+      if (!written) {
+        out.append(prefix);
+        if (named && !explode) {
+          out.append(names[i]).append(EQUAL);
+        }
+      } else {
+        out.append(explode ? sep : COMMA);
+      }
+      if (named && explode) {
+        out.append(names[i]).append(string != null && string.isEmpty() ? ifemp : EQUAL);
+      }
+      if (unreserved) {
+        ScalarWriter.write(item, out);
+      } else if (encoded == null) {
+        encode(out, allow, cache, string);
+      } else {
+        encoded.writeTo(out, allow, maxLengths[i]);
+      }
+      return true;
+    }
+
+    private boolean expandPairs(Appendable out, String prefix, Map<Object, Object> map, EncodingCache cache)
+        throws IOException {
+      if (map.isEmpty()) {
+        return false;
+      }
+      out.append(prefix);
+      boolean isFirst = true;
+      for (Map.Entry<Object, Object> entry : map.entrySet()) {
+        if (!isFirst) {
+          out.append(sep);
+        }
+        write(out, entry.getKey(), cache);
+        out.append(EQUAL);
+        write(out, entry.getValue() == null ? EMPTY : entry.getValue(), cache);
+        isFirst = false;
+      }
+      return true;
+    }
+
+    private void write(Appendable out, Object value, EncodingCache cache) throws IOException {
+      if (value instanceof EncodedValue) {
+        ((EncodedValue) value).writeTo(out, allow, 0);
+      } else {
+        encode(out, allow, cache, String.valueOf(value));
+      }
+    }
+  }
+}
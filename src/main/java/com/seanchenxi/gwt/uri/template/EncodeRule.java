@@ -16,131 +16,196 @@
 
 package com.seanchenxi.gwt.uri.template;
 
-import java.io.CharArrayWriter;
-import java.nio.charset.Charset;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.io.IOException;
 
 /**
  * <p>
  * Expression encode rule.
  * </p>
+ * <p>
+ * Allowed characters are looked up in a precomputed ASCII table, and every other code point is written
+ * straight as UTF-8 <code>%XX</code> triplets, without intermediate byte arrays.
+ * </p>
  *
  * @author Xi CHEN
  * @since 13/12/15.
  * @see <a href="http://tools.ietf.org/html/rfc6570#appendix-A">Implementation Hints | RFC 6570</a>
+ * @see PercentDecoder
  */
 public enum EncodeRule {
   /**
    * means any character not in the unreserved set will be encoded
    */
-  U {
-    @Override
-    public String encode(String input) {
-      return doEncode(input, false);
-    }
-  },
+  U(EncodeRule.UNRESERVED),
 
   /**
    * means any character not in the union of (unreserved / reserved / pct-encoding) will be encoded
    */
-  U_R {
-    @Override
-    public String encode(String input) {
-      return doEncode(input, true);
-    }
-  };
+  U_R(EncodeRule.UNRESERVED | EncodeRule.RESERVED);
 
-  private static final int CASE_DIFF = ('a' - 'A');
   /**
    * a-z && A-Z && 0-9 && -._~
    */
-  private static final Set<Character> UNRESERVED;
+  private static final int UNRESERVED = 1;
   /**
    * :/?#[]@!$&'()*+,;=
    */
-  private static final Set<Character> RESERVED;
+  private static final int RESERVED = 2;
 
   /**
-   * UTF-8 charset is required for encoding
+   * Character classes of the ASCII range, indexed by char
    */
-  private static final Charset CHARSET;
+  private static final byte[] CLASSES = new byte[128];
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  /**
+   * Replacement of unpaired surrogates, as done by the UTF-8 charset encoder
+   */
+  private static final int REPLACEMENT = '?';
+
   static{
-    CHARSET = Charset.forName("UTF8");
-    Set<Character> set = new LinkedHashSet<Character>();
     char i;
     for (i = 'a'; i <= 'z'; i++) {
-      set.add(i);
+      CLASSES[i] = UNRESERVED;
     }
     for (i = 'A'; i <= 'Z'; i++) {
-      set.add(i);
+      CLASSES[i] = UNRESERVED;
     }
     for (i = '0'; i <= '9'; i++) {
-      set.add(i);
+      CLASSES[i] = UNRESERVED;
+    }
+    for (char c : "-._~".toCharArray()) {
+      CLASSES[c] = UNRESERVED;
+    }
+    for (char c : ":/?#[]@!$&'()*+,;=".toCharArray()) {
+      CLASSES[c] = RESERVED;
     }
-    set.addAll(Arrays.asList('-', '.', '_', '~'));
-    UNRESERVED = Collections.unmodifiableSet(set);
-    RESERVED = Collections.unmodifiableSet(new LinkedHashSet<Character>(Arrays.asList(
-        ':', '/', '?', '#', '[', ']', '@',
-        '!', '$', '&', '\'', '(', ')', '*',
-        '+', ',', ';', '='
-    )));
   }
 
-  EncodeRule() {
+  private final int allowed;
+
+  EncodeRule(int allowed) {
+    this.allowed = allowed;
   }
 
-  public abstract String encode(String input);
+  /**
+   * @return the encoded input, or the input instance itself when nothing needs to be encoded
+   */
+  public String encode(String input) {
+    int length = input.length();
+    int i = skipAllowed(input, 0, length);
+    if (i == length) {
+      return input;
+    }
+    StringBuilder out = new StringBuilder(length + 16);
+    out.append(input, 0, i);
+    try {
+      doEncode(input, i, length, out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out.toString();
+  }
 
-  protected String doEncode(String input, boolean passReserved) {
+  /**
+   * Writes the encoded input into the given sink.
+   */
+  public void encodeTo(CharSequence input, Appendable out) throws IOException {
+    doEncode(input, 0, input.length(), out);
+  }
 
-    StringBuffer out = new StringBuffer(input.length());
+  /**
+   * Writes the first characters of the input into the given sink, encoded, in a single pass and without
+   * truncating the input first. As for the prefix modifier, characters are code points: surrogate pairs are
+   * never split.
+   *
+   * @param maxLength the maximum number of code points to write
+   */
+  public void encodeTo(CharSequence input, int maxLength, Appendable out) throws IOException {
+    int length = input.length();
+    int remaining = maxLength;
+    int i = 0;
+    while (i < length && remaining > 0) {
+      int start = i;
+      i = skipAllowed(input, i, Math.min(length, i + remaining));
+      if (i > start) {
+        out.append(input, start, i);
+        remaining -= i - start;
+      }
+      if (i < length && remaining > 0) {
+        i = encodeCodePoint(input, i, length, out);
+        remaining--;
+      }
+    }
+  }
 
-    CharArrayWriter charArrayWriter = new CharArrayWriter();
-    for (int i = 0; i < input.length();) {
-      char c = input.charAt(i);
-      if (!needEncode(c, passReserved)) {
-        out.append(c);
-        i++;
+  boolean isAllowed(char c) {
+    return c < 128 && (CLASSES[c] & allowed) != 0;
+  }
+
+  private int skipAllowed(CharSequence input, int from, int to) {
+    int i = from;
+    while (i < to && isAllowed(input.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private void doEncode(CharSequence input, int from, int to, Appendable out) throws IOException {
+    int i = from;
+    while (i < to) {
+      int start = i;
+      i = skipAllowed(input, i, to);
+      if (i > start) {
+        out.append(input, start, i);
+      }
+      if (i < to) {
+        i = encodeCodePoint(input, i, to, out);
+      }
+    }
+  }
+
+  /**
+   * Encodes the code point starting at the given index.
+   *
+   * @return the index following the code point
+   */
+  private static int encodeCodePoint(CharSequence input, int i, int to, Appendable out) throws IOException {
+    char c = input.charAt(i++);
+    int codePoint = c;
+    if (Character.isHighSurrogate(c)) {
+      if (i < to && Character.isLowSurrogate(input.charAt(i))) {
+        codePoint = Character.toCodePoint(c, input.charAt(i++));
       } else {
-        do {
-          charArrayWriter.write(c);
-          if (c >= 0xD800 && c <= 0xDBFF) {
-            if ( (i+1) < input.length()) {
-              int d = (int) input.charAt(i+1);
-              if (d >= 0xDC00 && d <= 0xDFFF) {
-                charArrayWriter.write(d);
-                i++;
-              }
-            }
-          }
-          i++;
-        } while (i < input.length() && needEncode((c = input.charAt(i)), passReserved));
-        charArrayWriter.flush();
-
-        byte[] byteArray = new String(charArrayWriter.toCharArray()).getBytes(CHARSET);
-        for (byte onrByte : byteArray) {
-          out.append('%');
-          char ch = Character.forDigit((onrByte >> 4) & 0xF, 16);
-          if (Character.isLetter(ch)) {
-            ch -= CASE_DIFF;
-          }
-          out.append(ch);
-          ch = Character.forDigit(onrByte & 0xF, 16);
-          if (Character.isLetter(ch)) {
-            ch -= CASE_DIFF;
-          }
-          out.append(ch);
-        }
-        charArrayWriter.reset();
+        codePoint = REPLACEMENT;
       }
+    } else if (Character.isLowSurrogate(c)) {
+      codePoint = REPLACEMENT;
+    }
+    appendUtf8(codePoint, out);
+    return i;
+  }
+
+  private static void appendUtf8(int codePoint, Appendable out) throws IOException {
+    if (codePoint < 0x80) {
+      appendTriplet(codePoint, out);
+    } else if (codePoint < 0x800) {
+      appendTriplet(0xC0 | (codePoint >> 6), out);
+      appendTriplet(0x80 | (codePoint & 0x3F), out);
+    } else if (codePoint < 0x10000) {
+      appendTriplet(0xE0 | (codePoint >> 12), out);
+      appendTriplet(0x80 | ((codePoint >> 6) & 0x3F), out);
+      appendTriplet(0x80 | (codePoint & 0x3F), out);
+    } else {
+      appendTriplet(0xF0 | (codePoint >> 18), out);
+      appendTriplet(0x80 | ((codePoint >> 12) & 0x3F), out);
+      appendTriplet(0x80 | ((codePoint >> 6) & 0x3F), out);
+      appendTriplet(0x80 | (codePoint & 0x3F), out);
     }
-    return out.toString();
   }
 
-  protected boolean needEncode(char c, boolean passReserved){
-    return !UNRESERVED.contains(c) && (!passReserved || !RESERVED.contains(c));
+  private static void appendTriplet(int octet, Appendable out) throws IOException {
+    out.append('%').append(HEX[(octet >> 4) & 0xF]).append(HEX[octet & 0xF]);
   }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.template;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * A variable value that keeps its encoded form, so that it is encoded at most once whatever the number of
+ * expansions and templates it is used in:
+ * </p>
+ * <ul>
+ *   <li>{@link #encoded(String)} wraps a value that is already percent-encoded (signed URLs, opaque cursors...).
+ *   It is validated once, then copied verbatim by every operator, its <code>%</code> never being encoded again.</li>
+ *   <li>{@link #of(String)} wraps a raw value, encoded on first use by each {@link EncodeRule}, then cached.</li>
+ * </ul>
+ * <p>
+ * The prefix modifier counts the characters of the value once decoded, so that a pct-encoded character is never
+ * split.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ * @see UriTemplates#encoded(String)
+ */
+public final class EncodedValue {
+
+  /**
+   * @throws IllegalArgumentException if the value holds characters not allowed in a URI, or malformed triplets
+   */
+  public static EncodedValue encoded(String encoded) {
+    for (int i = 0; i < encoded.length(); i++) {
+      char c = encoded.charAt(i);
+      if (c == '%' ? octet(encoded, i) < 0 : !EncodeRule.U_R.isAllowed(c)) {
+        throw new IllegalArgumentException("\"" + encoded + "\" is not percent-encoded at index " + i);
+      }
+    }
+    return new EncodedValue(encoded, true);
+  }
+
+  public static EncodedValue of(String value) {
+    return new EncodedValue(value, false);
+  }
+
+  private final String value;
+
+  private final boolean verbatim;
+
+  /**
+   * Encoded forms, by {@link EncodeRule#ordinal()}. Racy but idempotent, as for String#hashCode
+   */
+  private final String[] encodings;
+
+  private EncodedValue(String value, boolean verbatim) {
+    if (value == null) {
+      throw new IllegalArgumentException("The value cannot be null");
+    }
+    this.value = value;
+    this.verbatim = verbatim;
+    this.encodings = verbatim ? null : new String[EncodeRule.values().length];
+  }
+
+  /**
+   * @return the wrapped value, as given
+   */
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * @return whether the value was given already encoded
+   */
+  public boolean isEncoded() {
+    return verbatim;
+  }
+
+  public boolean isEmpty() {
+    return value.isEmpty();
+  }
+
+  /**
+   * @return the value encoded by the given rule, the value itself if it was given already encoded
+   */
+  public String encode(EncodeRule rule) {
+    if (verbatim) {
+      return value;
+    }
+    String encoded = encodings[rule.ordinal()];
+    if (encoded == null) {
+      encodings[rule.ordinal()] = encoded = rule.encode(value);
+    }
+    return encoded;
+  }
+
+  /**
+   * @param maxLength the maximum number of characters to write, or 0 to write them all
+   */
+  void writeTo(Appendable out, EncodeRule rule, int maxLength) throws IOException {
+    if (maxLength <= 0 || value.length() <= maxLength) {
+      out.append(encode(rule));
+    } else if (verbatim) {
+      out.append(value, 0, prefixEnd(maxLength));
+    } else {
+      rule.encodeTo(value, maxLength, out);
+    }
+  }
+
+  /**
+   * @return the end of the first characters of the encoded value, a UTF-8 sequence of triplets counting as one
+   */
+  private int prefixEnd(int maxLength) {
+    int length = value.length();
+    int i = 0;
+    for (int count = 0; count < maxLength && i < length; count++) {
+      if (value.charAt(i) != '%') {
+        i++;
+        continue;
+      }
+      int lead = octet(value, i);
+      int continuations = lead >= 0xF0 ? 3 : lead >= 0xE0 ? 2 : lead >= 0xC0 ? 1 : 0;
+      i += 3;
+      for (int k = 0; k < continuations && (octet(value, i) & 0xC0) == 0x80; k++) {
+        i += 3;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * @return the value of the triplet at the given index, or -1 if there is none
+   */
+  private static int octet(String value, int i) {
+    if (i + 2 >= value.length() || value.charAt(i) != '%') {
+      return -1;
+    }
+    int high = Character.digit(value.charAt(i + 1), 16);
+    int low = Character.digit(value.charAt(i + 2), 16);
+    return high < 0 || low < 0 ? -1 : (high << 4) | low;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof EncodedValue)) {
+      return false;
+    }
+    EncodedValue that = (EncodedValue) o;
+    return verbatim == that.verbatim && value.equals(that.value);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * value.hashCode() + (verbatim ? 1 : 0);
+  }
+
+  /**
+   * @return the wrapped value, as given
+   */
+  @Override
+  public String toString() {
+    return value;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.template;
+
+/**
+ * <p>
+ * Bounded memoization of {@link EncodeRule#encode(String)} results.
+ * </p>
+ * <p>
+ * Useful when the same low-cardinality values (ids, locales, versions...) are expanded over and over.
+ * Values longer than the configured maximum length are always encoded directly, so that high-cardinality
+ * values cannot flood the cache. A cache is used by the templates it is given to
+ * (see {@link UriTemplateBuilder#encodingCache(EncodingCache)}), or by every template when set as the
+ * {@link #setGlobal(EncodingCache) global} cache.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class EncodingCache {
+
+  public static final int DEFAULT_MAX_VALUE_LENGTH = 64;
+
+  private static volatile EncodingCache global;
+
+  /**
+   * @return the cache used by templates that have no cache of their own, or null if none
+   */
+  public static EncodingCache getGlobal() {
+    return global;
+  }
+
+  public static void setGlobal(EncodingCache cache) {
+    global = cache;
+  }
+
+  private final BoundedCache<String, String>[] caches;
+
+  private final int maxValueLength;
+
+  /**
+   * @param maximumSize maximum number of cached values, per {@link EncodeRule}
+   */
+  public EncodingCache(int maximumSize) {
+    this(maximumSize, DEFAULT_MAX_VALUE_LENGTH);
+  }
+
+  /**
+   * @param maximumSize maximum number of cached values, per {@link EncodeRule}
+   * @param maxValueLength values longer than this are never cached
+   */
+  @SuppressWarnings("unchecked")
+  public EncodingCache(int maximumSize, int maxValueLength) {
+    EncodeRule[] rules = EncodeRule.values();
+    this.caches = new BoundedCache[rules.length];
+    for (int i = 0; i < rules.length; i++) {
+      this.caches[i] = new BoundedCache<String, String>(maximumSize);
+    }
+    this.maxValueLength = maxValueLength;
+  }
+
+  public String encode(EncodeRule rule, String value) {
+    if (value.length() > maxValueLength) {
+      return rule.encode(value);
+    }
+    BoundedCache<String, String> cache = caches[rule.ordinal()];
+    String encoded = cache.get(value);
+    if (encoded == null) {
+      encoded = rule.encode(value);
+      cache.put(value, encoded);
+    }
+    return encoded;
+  }
+
+  public CacheStats stats() {
+    CacheStats stats = caches[0].stats();
+    for (int i = 1; i < caches.length; i++) {
+      stats = stats.plus(caches[i].stats());
+    }
+    return stats;
+  }
+
+  public void clear() {
+    for (BoundedCache<String, String> cache : caches) {
+      cache.clear();
+    }
+  }
+}
@@ -16,15 +16,15 @@
 
 package com.seanchenxi.gwt.uri.template;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
 
 import static com.seanchenxi.gwt.uri.template.PrefixVarSpec.IGNORE_MAX_LENGTH;
 import static com.seanchenxi.gwt.uri.template.StringPool.EMPTY;
-import static com.seanchenxi.gwt.uri.template.StringPool.EQUAL;
 
 /**
  * @author Xi CHEN
@@ -32,42 +32,34 @@ import static com.seanchenxi.gwt.uri.template.StringPool.EQUAL;
  */
 class ExpansionProcessor {
 
-  static StringBuilder joinVar(VarSpec.Value value, Operator operator, boolean named){
-    return joinVar(value, operator, null, named);
-  }
-
-  static StringBuilder joinVar(VarSpec.Value value, Operator operator, String separator){
-    return joinVar(value, operator, separator, false);
+  static void encode(Appendable out, EncodeRule encodeRule, EncodingCache cache, String value) throws IOException {
+    if(cache == null){
+      encodeRule.encodeTo(value, out);
+    }else{
+      out.append(cache.encode(encodeRule, value));
+    }
   }
 
-  static StringBuilder joinVar(VarSpec.Value value, Operator operator, String separator, boolean named){
-    String name = value.getName();
-    String whenEmpty = operator.getIfemp();
-    EncodeRule encodeRule = operator.getAllow();
-    String sep = separator == null ? operator.getSep() : separator;
-    StringBuilder builder = new StringBuilder();
-    boolean isFirstSub = true;
-    for(final Object varValue : value){
-      if(!isFirstSub){
-        builder.append(sep);
-      }
-      if(varValue instanceof List){
-        @SuppressWarnings("unchecked")
-        List<String> pair = (List<String>) varValue;
-        assert pair.size() == 2;
-        builder.append(encodeRule.encode(pair.get(0))).append(EQUAL).append(encodeRule.encode(pair.get(1)));
-      }else if(varValue instanceof String){
-        String varVal = (String) varValue;
-        boolean empty = varVal.isEmpty();
-        if(named){
-          builder.append(name).append(empty ? whenEmpty : EQUAL);
-        }
-        builder.append(encodeRule.encode(varVal));
+  /**
+   * Resolves the value parts of a variable, according to its modifier.
+   * @return null if the value is undefined
+   */
+  static VarSpec.Value resolve(String name, Object value, Modifier modifier, int maxLength) {
+    if(value == null){
+      return null;
+    }else if(modifier == Modifier.PREFIX){
+      if(value instanceof Map){
+        return expand(name, (Map) value, maxLength);
+      }else if(value instanceof Iterable){
+        return expand(name, (Iterable) value, maxLength);
       }
-
-      isFirstSub = false;
+      return print(name, value, maxLength);
+    }else if(value instanceof Map){
+      return expand(name, (Map) value, modifier == Modifier.EXPLODE);
+    }else if(value instanceof Iterable){
+      return expand(name, (Iterable) value);
     }
-    return builder;
+    return expand(name, value);
   }
 
   public static VarSpec.Value expand(String name, Map value){
@@ -76,15 +68,7 @@ class ExpansionProcessor {
 
   public static VarSpec.Value expand(String name, Map value, boolean pair){
     if(value != null && pair){
-      List<List<String>> result = new ArrayList<List<String>>();
-      @SuppressWarnings("unchecked")
-      Set<Map.Entry> entrySet = value.entrySet();
-      for(Map.Entry entry : entrySet){
-        String key = doPrint(entry.getKey());
-        String keyValue = doPrint(entry.getValue());
-        result.add(Arrays.asList(key, (keyValue == null ? EMPTY : keyValue)));
-      }
-      return new VarSpec.Value<List<String>>(name, VarSpec.Value.Type.PAIR, result);
+      return new VarSpec.Value<List<String>>(name, VarSpec.Value.Type.PAIR, pairs(value));
     }else{
       return expand(name, value);
     }
@@ -94,14 +78,7 @@ class ExpansionProcessor {
     if(value == null){
       return null;
     }
-    List<String> result = new ArrayList<String>();
-    @SuppressWarnings("unchecked")
-    Set<Map.Entry> entrySet = value.entrySet();
-    for(Map.Entry entry : entrySet){
-      addIfNotNull(result, doPrint(entry.getKey(), maxLength));
-      addIfNotNull(result, doPrint(entry.getValue(), maxLength));
-    }
-    return new VarSpec.Value<String>(name, VarSpec.Value.Type.PAIR, result);
+    return new VarSpec.Value<String>(name, VarSpec.Value.Type.PAIR, keysAndValues(value, maxLength));
   }
 
   public static VarSpec.Value expand(String name, Iterable iterable){
@@ -110,12 +87,7 @@ class ExpansionProcessor {
 
 
   public static VarSpec.Value expand(String name, Iterable iterable, int maxLength){
-    List<String> result = new ArrayList<String>();
-    for(Object item : iterable){
-      addIfNotNull(result, doPrint(item, maxLength));
-
-    }
-    return new VarSpec.Value<String>(name, VarSpec.Value.Type.LIST, result);
+    return new VarSpec.Value<String>(name, VarSpec.Value.Type.LIST, items(iterable, maxLength));
   }
 
   public static VarSpec.Value expand(String name, Object value) {
@@ -123,24 +95,150 @@ class ExpansionProcessor {
   }
 
   public static VarSpec.Value print(String name, Object object, int maxLength){
-    return new VarSpec.Value<String>(name, doPrint(object, maxLength));
+    return new VarSpec.Value<String>(name, object, maxLength);
+  }
+
+  /**
+   * @return a view of the printed entries of the map, as lists of their key and value
+   */
+  private static Iterable<List<String>> pairs(final Map<?, ?> map) {
+    return new Iterable<List<String>>() {
+      @Override
+      public Iterator<List<String>> iterator() {
+        final Iterator<? extends Map.Entry<?, ?>> entries = map.entrySet().iterator();
+        return new LookAheadIterator<List<String>>() {
+          @Override
+          List<String> fetch() {
+            if(!entries.hasNext()){
+              return null;
+            }
+            Map.Entry<?, ?> entry = entries.next();
+            String value = doPrint(entry.getValue());
+            return Arrays.asList(doPrint(entry.getKey()), value == null ? EMPTY : value);
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * @return a view of the printed and trimmed keys and values of the map, one after the other, skipping nulls
+   */
+  private static Iterable<String> keysAndValues(final Map<?, ?> map, final int maxLength) {
+    return new Iterable<String>() {
+      @Override
+      public Iterator<String> iterator() {
+        final Iterator<? extends Map.Entry<?, ?>> entries = map.entrySet().iterator();
+        return new LookAheadIterator<String>() {
+          private Object pending;
+
+          @Override
+          String fetch() {
+            while(pending != null || entries.hasNext()){
+              Object item;
+              if(pending != null){
+                item = pending;
+                pending = null;
+              }else{
+                Map.Entry<?, ?> entry = entries.next();
+                item = entry.getKey();
+                pending = entry.getValue();
+              }
+              String printed = doPrint(item, maxLength);
+              if(printed != null){
+                return printed.trim();
+              }
+            }
+            return null;
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * @return a view of the printed and trimmed items, skipping nulls
+   */
+  private static Iterable<String> items(final Iterable<?> iterable, final int maxLength) {
+    return new Iterable<String>() {
+      @Override
+      public Iterator<String> iterator() {
+        final Iterator<?> items = iterable.iterator();
+        return new LookAheadIterator<String>() {
+          @Override
+          String fetch() {
+            while(items.hasNext()){
+              String printed = doPrint(items.next(), maxLength);
+              if(printed != null){
+                return printed.trim();
+              }
+            }
+            return null;
+          }
+        };
+      }
+    };
   }
 
   private static String doPrint(Object value) {
     return doPrint(value, IGNORE_MAX_LENGTH);
   }
 
-  private static String doPrint(Object object, int maxLength){
+  static String doPrint(Object object, int maxLength){
     if(object == null){
       return null;
     }
     String value = String.valueOf(object);
-    return maxLength > 0 ? value.substring(0, Math.min(value.length(), maxLength)) : value;
+    return maxLength > 0 ? value.substring(0, prefixEnd(value, maxLength)) : value;
   }
 
-  private static void addIfNotNull(List<String> result, String value) {
-    if(value != null){
-      result.add(value.trim());
+  /**
+   * @return the end index of the first characters of the value, counted in code points
+   */
+  static int prefixEnd(CharSequence value, int maxLength){
+    int length = value.length();
+    int i = 0;
+    for(int count = 0; count < maxLength && i < length; count++){
+      boolean pair = Character.isHighSurrogate(value.charAt(i))
+          && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1));
+      i += pair ? 2 : 1;
+    }
+    return i;
+  }
+
+  /**
+   * Iterates over the items fetched one at a time, until none is left.
+   */
+  private abstract static class LookAheadIterator<T> implements Iterator<T> {
+
+    private T next;
+
+    /**
+     * @return the next item, or null if there is none left
+     */
+    abstract T fetch();
+
+    @Override
+    public boolean hasNext() {
+      if(next == null){
+        next = fetch();
+      }
+      return next != null;
+    }
+
+    @Override
+    public T next() {
+      if(!hasNext()){
+        throw new NoSuchElementException();
+      }
+      T item = next;
+      next = null;
+      return item;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
     }
   }
 }
@@ -16,19 +16,13 @@
 
 package com.seanchenxi.gwt.uri.template;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-import static com.seanchenxi.gwt.uri.template.ExpansionProcessor.joinVar;
-import static com.seanchenxi.gwt.uri.template.StringPool.COMMA;
-import static com.seanchenxi.gwt.uri.template.StringPool.EMPTY;
-import static com.seanchenxi.gwt.uri.template.StringPool.EQUAL;
-import static com.seanchenxi.gwt.uri.template.VarSpec.Value.Type.LIST;
-import static com.seanchenxi.gwt.uri.template.VarSpec.Value.Type.PAIR;
-import static com.seanchenxi.gwt.uri.template.VarSpec.Value.Type.STRING;
-
 /**
  * <p>
  * Template expressions are the parameterized parts of a URI Template.
@@ -83,6 +77,11 @@ public class Expression extends TemplatePartial<String> {
    */
   private List<VarSpec> varSpecs;
 
+  /**
+   * The standalone expansion plan of this expression, built on first use
+   */
+  private CompiledTemplate.Instruction instruction;
+
   public Expression(Operator operator, List<VarSpec> varSpecs) {
     if (varSpecs == null || varSpecs.size() < 1) {
       throw new IllegalArgumentException("Expression must contains at least one VarSpec");
@@ -95,8 +94,11 @@ public class Expression extends TemplatePartial<String> {
     return operator;
   }
 
+  /**
+   * @return an unmodifiable view of the variable specifiers
+   */
   public List<VarSpec> getVarSpecs() {
-    return varSpecs;
+    return Collections.unmodifiableList(varSpecs);
   }
 
   @Override
@@ -114,56 +116,36 @@ public class Expression extends TemplatePartial<String> {
 
   @Override
   public String expand(Map<String, Object> values) {
-    String separator = operator.getSep();
-    String whenEmpty = operator.getIfemp();
-    String whenFirst = operator.getFirst();
-    boolean isNamed = operator.isNamed();
-    boolean isFirst = true;
-
     StringBuilder builder = new StringBuilder();
-    for (final VarSpec varSpec : varSpecs) {
-      VarSpec.Value valueParts = varSpec.expand(values);
-      if (valueParts == null) {
-        continue;
-      }
-
-      boolean isString = valueParts.is(STRING);
-      boolean isEmpty = valueParts.isEmpty();
-      boolean isExplode = varSpec.is(Modifier.EXPLODE);
-      if(isNamed || !isEmpty || isString){
-        builder.append(isFirst ? whenFirst : separator);
-      }
+    expandTo(values, builder);
+    return builder.toString();
+  }
 
-      if (isString || !isExplode) {
-        if(!isString && isEmpty){
-          continue;
-        }
-        if(isNamed){
-          builder.append(varSpec.getName());
-        }
-        if(isEmpty){
-          builder.append(whenEmpty);
-        }else if(isNamed){
-          builder.append(EQUAL);
-        }
-        builder.append(joinVar(valueParts, operator, COMMA));
-      } else {
-        if (isNamed) {
-          if(isEmpty){
-            continue;
-          }else if (valueParts.is(LIST)) {
-            builder.append(joinVar(valueParts, operator, true));
-          }else if (valueParts.is(PAIR)) {
-            builder.append(joinVar(valueParts, operator, false));
-          }
-        } else {
-          builder.append(joinVar(valueParts, operator, false));
-        }
-      }
-      isFirst = false;
+  @Override
+  public void expandTo(Map<String, Object> values, Appendable out) throws IOException {
+    CompiledTemplate.Instruction instruction = this.instruction;
+    if (instruction == null) {
+      // instructions are immutable, so that racing threads may each build their own
+      this.instruction = instruction = new CompiledTemplate.Instruction(operator,
+          varSpecs.toArray(new VarSpec[varSpecs.size()]));
     }
+    instruction.execute(values, out);
+  }
 
-    return builder.length() > 1 || !isNamed ? builder.toString() : EMPTY;
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    Expression expression = (Expression) o;
+    return operator == expression.operator && varSpecs.equals(expression.varSpecs);
   }
 
-}
\ No newline at end of file
+  @Override
+  public int hashCode() {
+    return 31 * operator.ordinal() + varSpecs.hashCode();
+  }
+}
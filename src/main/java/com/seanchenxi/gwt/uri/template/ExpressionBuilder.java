@@ -43,22 +43,10 @@ public class ExpressionBuilder {
           "\" and close with \"" + Expression.CLOSE + "\"");
     }
 
-    token = token.substring(1, token.length() - 1);
+    Expression parsed = TemplateParser.parseExpression(token);
     ExpressionBuilder builder = new ExpressionBuilder();
-
-    // Check for URI operators
-    String firstChar = token.substring(0, 1);
-    if (Operator.isValide(firstChar)) {
-      builder.operator = Operator.parseValue(firstChar);
-      token = token.substring(1);
-    } else {
-      builder.operator = Operator.NUL;
-    }
-
-    builder.varSpecs = new LinkedList<VarSpec>();
-    for (String varSpecRaw : token.split(VarSpec.SEPARATOR)) {
-      builder.varSpec(VarSpecBuilder.var(varSpecRaw));
-    }
+    builder.operator = parsed.getOperator();
+    builder.varSpecs = new LinkedList<VarSpec>(parsed.getVarSpecs());
     return builder;
   }
 
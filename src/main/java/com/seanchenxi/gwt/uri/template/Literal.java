@@ -16,6 +16,7 @@
 
 package com.seanchenxi.gwt.uri.template;
 
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -38,6 +39,10 @@ public class Literal extends TemplatePartial<String> {
     return value;
   }
 
+  /**
+   * @deprecated templates already built are not affected, create a new literal instead
+   */
+  @Deprecated
   public void setValue(String value) {
     this.value = value;
   }
@@ -52,4 +57,25 @@ public class Literal extends TemplatePartial<String> {
     return getValue();
   }
 
+  @Override
+  public void expandTo(Map<String, Object> values, Appendable out) throws IOException {
+    out.append(getValue());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    Literal literal = (Literal) o;
+    return value == null ? literal.value == null : value.equals(literal.value);
+  }
+
+  @Override
+  public int hashCode() {
+    return value == null ? 0 : value.hashCode();
+  }
 }
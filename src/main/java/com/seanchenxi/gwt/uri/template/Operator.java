@@ -115,16 +115,31 @@ public enum Operator {
   }
 
   public static Operator parseValue(String operator){
-    if(operator != null && !operator.trim().isEmpty()){
-      for(Operator op : values()){
-        if(op.sign.equals(operator)){
-          return op;
-        }
+    if(operator != null && operator.length() == 1){
+      Operator op = forSign(operator.charAt(0));
+      if(op != null){
+        return op;
       }
     }
     throw new IllegalArgumentException(operator + " is not a valide operator.");
   }
 
+  /**
+   * @return the operator having the given sign, or null if the character is not an operator
+   */
+  public static Operator forSign(char sign){
+    switch (sign){
+      case '+': return RESERVED;
+      case '#': return FRAGMENT;
+      case '.': return LABEL;
+      case '/': return PATH;
+      case ';': return PARAMETER;
+      case '?': return QUERY;
+      case '&': return CONTINUATION;
+      default: return null;
+    }
+  }
+
   public static boolean isValide(String operator){
     return Available.SET.contains(operator);
   }
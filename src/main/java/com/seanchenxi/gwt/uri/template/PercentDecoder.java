@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.template;
+
+/**
+ * <p>
+ * Decodes percent-encoded UTF-8 text, as produced by {@link EncodeRule}.
+ * </p>
+ * <p>
+ * Hexadecimal digits and UTF-8 lead bytes are looked up in precomputed tables, and multi-byte sequences are
+ * decoded straight into code points, without intermediate byte arrays. Unlike
+ * <code>java.net.URLDecoder</code>, which decodes form data, a <code>+</code> is kept as is.
+ * </p>
+ * <p>
+ * Overlong sequences, encoded surrogates and code points beyond U+10FFFF are rejected, so that a decoded value
+ * never holds a character its encoded form was hiding (e.g. <code>%C0%AF</code> for <code>/</code>).
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class PercentDecoder {
+
+  /**
+   * Values of the hexadecimal digits of the ASCII range, indexed by char, -1 for other characters
+   */
+  private static final byte[] DIGITS = new byte[128];
+
+  /**
+   * Number of continuation bytes following a UTF-8 lead byte, indexed by its 5 high bits, -1 if it cannot lead
+   */
+  private static final byte[] CONTINUATIONS = new byte[32];
+
+  /**
+   * Smallest code point of a sequence, indexed by its number of continuation bytes
+   */
+  private static final int[] MIN_CODE_POINTS = {0, 0x80, 0x800, 0x10000};
+
+  static{
+    for (int i = 0; i < DIGITS.length; i++) {
+      DIGITS[i] = -1;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      DIGITS[c] = (byte) (c - '0');
+    }
+    for (char c = 'A'; c <= 'F'; c++) {
+      DIGITS[c] = (byte) (c - 'A' + 10);
+      DIGITS[c + 'a' - 'A'] = (byte) (c - 'A' + 10);
+    }
+    for (int i = 0; i < CONTINUATIONS.length; i++) {
+      // 0xxxxxxx, 10xxxxxx (continuation), 110xxxxx, 1110xxxx, 11110xxx, 11111xxx
+      CONTINUATIONS[i] = (byte) (i < 16 ? 0 : i < 24 ? -1 : i < 28 ? 1 : i < 30 ? 2 : i < 31 ? 3 : -1);
+    }
+  }
+
+  /**
+   * @return the decoded value, or the value instance itself when it holds no <code>%</code>
+   * @throws IllegalArgumentException if the value holds a malformed triplet or UTF-8 sequence
+   */
+  public static String decode(String value) {
+    return decode(value, 0, value.length());
+  }
+
+  /**
+   * Decodes the characters of the value from <code>start</code> (inclusive) to <code>end</code> (exclusive),
+   * without copying them first.
+   *
+   * @throws IllegalArgumentException if the range holds a malformed triplet or UTF-8 sequence
+   */
+  public static String decode(CharSequence value, int start, int end) {
+    String decoded = tryDecode(value, start, end);
+    if (decoded == null) {
+      throw new IllegalArgumentException("Malformed percent-encoding in \""
+          + value.subSequence(start, end) + "\"");
+    }
+    return decoded;
+  }
+
+  /**
+   * @return the decoded range, or null if it holds a malformed triplet or UTF-8 sequence
+   */
+  static String tryDecode(CharSequence value, int start, int end) {
+    int percent = start;
+    while (percent < end && value.charAt(percent) != '%') {
+      percent++;
+    }
+    if (percent == end) {
+      return value.subSequence(start, end).toString();
+    }
+    StringBuilder out = new StringBuilder(end - start);
+    out.append(value, start, percent);
+    int i = percent;
+    while (i < end) {
+      char c = value.charAt(i);
+      if (c != '%') {
+        out.append(c);
+        i++;
+        continue;
+      }
+      int lead = octet(value, i, end);
+      int count = lead < 0 ? -1 : CONTINUATIONS[lead >>> 3];
+      if (count < 0) {
+        return null;
+      }
+      i += 3;
+      if (count == 0) {
+        out.append((char) lead);
+        continue;
+      }
+      int codePoint = lead & (0x3F >> count);
+      for (int k = 0; k < count; k++) {
+        int next = octet(value, i, end);
+        if (next < 0 || (next & 0xC0) != 0x80) {
+          return null;
+        }
+        codePoint = (codePoint << 6) | (next & 0x3F);
+        i += 3;
+      }
+      if (codePoint < MIN_CODE_POINTS[count] || codePoint > Character.MAX_CODE_POINT
+          || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+        return null;
+      } else if (codePoint >= 0x10000) {
+        out.append(Character.toChars(codePoint));
+      } else {
+        out.append((char) codePoint);
+      }
+    }
+    return out.toString();
+  }
+
+  private static int octet(CharSequence value, int i, int end) {
+    if (i + 2 >= end || value.charAt(i) != '%') {
+      return -1;
+    }
+    char high = value.charAt(i + 1);
+    char low = value.charAt(i + 2);
+    if (high >= 128 || low >= 128 || DIGITS[high] < 0 || DIGITS[low] < 0) {
+      return -1;
+    }
+    return (DIGITS[high] << 4) | DIGITS[low];
+  }
+
+  private PercentDecoder() {
+  }
+}
@@ -30,14 +30,23 @@ public class PrefixVarSpec extends VarSpec {
 
   public PrefixVarSpec(String name, int maxLength) {
     super(name, Modifier.PREFIX);
-    this.setMaxLength(maxLength);
+    this.maxLength = validateMaxLength(maxLength);
   }
 
+  /**
+   * @deprecated templates already built are not affected, create a new variable specifier instead
+   */
+  @Deprecated
   public void setMaxLength(int maxLength) {
+    this.maxLength = validateMaxLength(maxLength);
+    this.instruction = null;
+  }
+
+  private static int validateMaxLength(int maxLength) {
     if(maxLength < 0 || maxLength > 10000){
       throw new IllegalArgumentException("Max length must be positive and < 10000");
     }
-    this.maxLength = maxLength;
+    return maxLength;
   }
 
   public int getMaxLength() {
@@ -52,15 +61,16 @@ public class PrefixVarSpec extends VarSpec {
   @Override
   public Value expand(Map<String, Object> values){
     Object value = values == null ? null : values.get(getName());
-    if(value == null){
-      return null;
-    }else if(value instanceof Map){
-      return ExpansionProcessor.expand(getName(), (Map) value, maxLength);
-    }else if(value instanceof Iterable){
-      return ExpansionProcessor.expand(getName(),(Iterable) value, maxLength);
-    }else{
-      return ExpansionProcessor.print(getName(), value, maxLength);
-    }
+    return ExpansionProcessor.resolve(getName(), value, getModifier(), maxLength);
   }
 
-}
\ No newline at end of file
+  @Override
+  public boolean equals(Object o) {
+    return super.equals(o) && maxLength == ((PrefixVarSpec) o).maxLength;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * super.hashCode() + maxLength;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.template;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Writes the values whose string never needs encoding (integers, booleans, floating-point numbers and UUIDs)
+ * straight into the output, as <code>String.valueOf</code> would print them, without encoding pass nor,
+ * for most of them, intermediate string.
+ * </p>
+ * <p>
+ * GWT has its own version, the strings of its floating-point numbers holding reserved characters
+ * (<code>1e+21</code>), and UUIDs not being emulated.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+final class ScalarWriter {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  static boolean isUnreserved(Object value) {
+    return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+        || value instanceof Boolean || value instanceof Double || value instanceof Float || value instanceof UUID;
+  }
+
+  /**
+   * @param value a value for which {@link #isUnreserved(Object)} is true
+   */
+  static void write(Object value, Appendable out) throws IOException {
+    if (value instanceof Boolean) {
+      out.append((Boolean) value ? "true" : "false");
+    } else if (value instanceof UUID) {
+      writeUuid((UUID) value, out);
+    } else if (value instanceof Double || value instanceof Float) {
+      if (!(out instanceof StringBuilder)) {
+        out.append(String.valueOf(value));
+      } else if (value instanceof Double) {
+        ((StringBuilder) out).append(((Double) value).doubleValue());
+      } else {
+        ((StringBuilder) out).append(((Float) value).floatValue());
+      }
+    } else {
+      writeLong(((Number) value).longValue(), out);
+    }
+  }
+
+  static void writeLong(long value, Appendable out) throws IOException {
+    if (out instanceof StringBuilder) {
+      ((StringBuilder) out).append(value);
+      return;
+    }
+    // negated, so that Long.MIN_VALUE is written as well
+    long negative = value < 0 ? value : -value;
+    if (value < 0) {
+      out.append('-');
+    }
+    long divisor = 1;
+    while (negative / divisor <= -10) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      out.append((char) ('0' - negative / divisor % 10));
+    }
+  }
+
+  private static void writeUuid(UUID uuid, Appendable out) throws IOException {
+    long most = uuid.getMostSignificantBits();
+    long least = uuid.getLeastSignificantBits();
+    writeHex(most >>> 32, 8, out);
+    out.append('-');
+    writeHex(most >>> 16, 4, out);
+    out.append('-');
+    writeHex(most, 4, out);
+    out.append('-');
+    writeHex(least >>> 48, 4, out);
+    out.append('-');
+    writeHex(least, 12, out);
+  }
+
+  private static void writeHex(long value, int digits, Appendable out) throws IOException {
+    for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+      out.append(HEX[(int) (value >>> shift) & 0xF]);
+    }
+  }
+
+  private ScalarWriter() {
+  }
+}
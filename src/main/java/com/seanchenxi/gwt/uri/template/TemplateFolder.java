@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.template;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Partial expansion: renders the parts of a template whose variables are known into literals.
+ * </p>
+ * <p>
+ * In an expression, the leading run of known variables is rendered, and the remaining variables are kept in an
+ * expression whose operator continues the rendered text: <code>{?a,b}</code> with <code>a</code> known becomes
+ * <code>?a=1{&amp;b}</code>. Simple string, reserved and fragment expansions have no such continuation operator,
+ * so they are kept whole unless all of their variables are known. Known undefined variables are dropped.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+final class TemplateFolder {
+
+  /**
+   * @param known the known values, where a null value means the variable is known to be undefined
+   */
+  static List<TemplatePartial> fold(List<TemplatePartial> partials, Map<String, Object> known) {
+    List<TemplatePartial> folded = new ArrayList<TemplatePartial>();
+    fold(partials, known, folded);
+    return folded;
+  }
+
+  private static void fold(List<TemplatePartial> partials, Map<String, Object> known, List<TemplatePartial> folded) {
+    for (TemplatePartial partial : partials) {
+      if (partial instanceof UriTemplate) {
+        fold(((UriTemplate) partial).getPartials(), known, folded);
+      } else if (partial instanceof Expression) {
+        Expression expression = (Expression) partial;
+        fold(expression.getOperator(), expression.getVarSpecs(), known, folded);
+      } else if (partial instanceof VarSpec) {
+        List<VarSpec> varSpecs = new ArrayList<VarSpec>(1);
+        varSpecs.add((VarSpec) partial);
+        fold(Operator.NUL, varSpecs, known, folded);
+      } else if (partial instanceof Literal) {
+        addLiteral(folded, ((Literal) partial).getValue());
+      } else {
+        folded.add(partial);
+      }
+    }
+  }
+
+  /**
+   * Merges the literal with the previous one, if any.
+   */
+  private static void addLiteral(List<TemplatePartial> folded, String literal) {
+    if (literal == null || literal.isEmpty()) {
+      return;
+    }
+    int last = folded.size() - 1;
+    if (last >= 0 && folded.get(last) instanceof Literal) {
+      folded.set(last, new Literal(((Literal) folded.get(last)).getValue() + literal));
+    } else {
+      folded.add(new Literal(literal));
+    }
+  }
+
+  private static void fold(Operator operator, List<VarSpec> varSpecs, Map<String, Object> known,
+                           List<TemplatePartial> folded) {
+    List<VarSpec> remaining = new ArrayList<VarSpec>(varSpecs.size());
+    for (VarSpec varSpec : varSpecs) {
+      if (!known.containsKey(varSpec.getName()) || known.get(varSpec.getName()) != null) {
+        remaining.add(varSpec);
+      }
+    }
+    int count = 0;
+    while (count < remaining.size() && known.containsKey(remaining.get(count).getName())) {
+      count++;
+    }
+    String rendered = count == 0 ? StringPool.EMPTY : render(operator, remaining.subList(0, count), known);
+    List<VarSpec> rest = remaining.subList(count, remaining.size());
+    Operator continuation = rendered.isEmpty() ? operator : continuation(operator);
+    if (rest.isEmpty()) {
+      addLiteral(folded, rendered);
+    } else if (continuation == null) {
+      folded.add(new Expression(operator, remaining));
+    } else {
+      addLiteral(folded, rendered);
+      folded.add(new Expression(continuation, rest));
+    }
+  }
+
+  private static String render(Operator operator, List<VarSpec> varSpecs, Map<String, Object> known) {
+    StringBuilder out = new StringBuilder();
+    try {
+      new CompiledTemplate.Instruction(operator, varSpecs.toArray(new VarSpec[varSpecs.size()])).execute(known, out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * @return the operator expanding further variables after an expansion of the given operator,
+   * or null if there is none
+   */
+  private static Operator continuation(Operator operator) {
+    switch (operator) {
+      case QUERY:
+      case CONTINUATION:
+        return Operator.CONTINUATION;
+      case LABEL:
+      case PATH:
+      case PARAMETER:
+        return operator;
+      default:
+        return null;
+    }
+  }
+
+  private TemplateFolder() {
+  }
+}
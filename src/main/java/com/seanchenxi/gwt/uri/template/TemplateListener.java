@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.template;
+
+/**
+ * <p>
+ * Notified of the parsing and expansion of templates, to monitor them, see {@link UriTemplates#setListener}.
+ * </p>
+ * <p>
+ * Notifications are made by the threads parsing and expanding templates, so implementations must be thread-safe
+ * and cheap. The {@link #NONE default} listener does nothing, and expansions do not even read the clock then.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public interface TemplateListener {
+
+  TemplateListener NONE = new TemplateListener() {
+    @Override
+    public long time() {
+      return 0L;
+    }
+
+    @Override
+    public void onParse(String raw, long time) {
+    }
+
+    @Override
+    public void onParseFailure(String raw, RuntimeException e) {
+    }
+
+    @Override
+    public void onCacheLookup(String raw, boolean hit) {
+    }
+
+    @Override
+    public void onExpand(CompiledTemplate template, int length, long time) {
+    }
+  };
+
+  /**
+   * @return the current time, in the unit of the durations given to this listener
+   */
+  long time();
+
+  /**
+   * @param time the duration of the parsing
+   * @see UriTemplateBuilder#raw(String)
+   */
+  void onParse(String raw, long time);
+
+  /**
+   * @param e the error about to be thrown
+   */
+  void onParseFailure(String raw, RuntimeException e);
+
+  /**
+   * @param hit whether the template was found in the cache, or had to be parsed
+   * @see UriTemplates#parse(String)
+   */
+  void onCacheLookup(String raw, boolean hit);
+
+  /**
+   * <p>
+   * Notified by the expansions into strings, and into bytes: the <code>expand</code> and <code>expandToBytes</code>
+   * methods of {@link CompiledTemplate} and {@link UriTemplate}, and the <code>expand</code> methods of the
+   * expanders generated at runtime (<code>com.seanchenxi.gwt.uri.server.Expander</code>).
+   * </p>
+   * <p>
+   * Expansions into sinks given by the caller (the <code>expandTo</code> methods) are not notified, as they may be
+   * part of a larger output, nor are the implementations generated by the annotation processor, which run no
+   * code besides the expansion itself.
+   * </p>
+   *
+   * @param length the length of the expansion, in characters, or in bytes
+   * @param time   the duration of the expansion
+   */
+  void onExpand(CompiledTemplate template, int length, long time);
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.template;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Reverse of the expansion: extracts the variable values from a URI produced by a {@link CompiledTemplate}.
+ * </p>
+ * <p>
+ * Literals must match exactly, while each expression consumes the longest run of characters its operator can
+ * produce, backtracking until the rest of the URI matches. Values are percent-decoded and returned as:
+ * </p>
+ * <ul>
+ *   <li>a <code>String</code> for simple values,</li>
+ *   <li>a <code>List&lt;String&gt;</code> for lists, and for non-exploded associative arrays,
+ *   which cannot be told apart from lists once expanded,</li>
+ *   <li>a <code>Map&lt;String, String&gt;</code> for exploded associative arrays.</li>
+ * </ul>
+ * <p>
+ * Values of prefix variables are the matched prefixes. Variables that were not expanded are absent from the result.
+ * </p>
+ * <p>
+ * Being greedy, adjacent expressions that may produce the same characters are resolved in favour of the first one:
+ * <code>"/file.txt"</code> matches <code>{/name}{.ext}</code> with <code>name</code> set to <code>"file.txt"</code>.
+ * Separate such expressions with a literal (<code>{/name}.{ext}</code>) when both values are expected.
+ * </p>
+ * <p>
+ * A variable found in several expressions must have the same value in all of them.
+ * </p>
+ * <p>
+ * Backtracking is bounded: a URI which cannot be matched without decoding more than {@link #MAX_DECODED}
+ * characters in total is reported as not matching, so that crafted URIs cannot make matching arbitrarily slow.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+final class TemplateMatcher {
+
+  private static final char COMMA = ',';
+  private static final char EQUAL = '=';
+
+  /**
+   * Maximum number of characters decoded while matching one URI, all candidate expansions included
+   */
+  static final int MAX_DECODED = 1 << 16;
+
+  private final CompiledTemplate.Instruction[] instructions;
+
+  /**
+   * Whether a variable is found in several expressions
+   */
+  private final boolean repeated;
+
+  TemplateMatcher(CompiledTemplate.Instruction[] instructions) {
+    Map<String, Object> names = new HashMap<String, Object>();
+    boolean repeated = false;
+    for (CompiledTemplate.Instruction instruction : instructions) {
+      if (instruction.literal == null && instruction.names == null) {
+        throw new IllegalArgumentException("Cannot match against the template partial " + instruction.partial);
+      }
+      if (instruction.names != null) {
+        for (String name : instruction.names) {
+          repeated |= names.put(name, instruction) != null;
+        }
+      }
+    }
+    this.instructions = instructions;
+    this.repeated = repeated;
+  }
+
+  /**
+   * @return the variables of the given URI, or null if it does not match the template
+   */
+  Map<String, Object> match(String uri) {
+    Map<String, Object> variables = new LinkedHashMap<String, Object>();
+    return new Attempt(uri).match(0, 0, variables) ? variables : null;
+  }
+
+  /**
+   * @return the end of the longest run of characters that the expression could have produced
+   */
+  static int scan(CompiledTemplate.Instruction instruction, String uri, int position) {
+    int i = position;
+    int length = uri.length();
+    while (i < length && canProduce(instruction, uri.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean canProduce(CompiledTemplate.Instruction instruction, char c) {
+    return instruction.allow.isAllowed(c) || c == '%' || c == COMMA || c == EQUAL
+        || instruction.first.indexOf(c) >= 0 || instruction.sep.indexOf(c) >= 0;
+  }
+
+  /**
+   * Decodes the expansion found in the URI from <code>start</code> (inclusive) to <code>end</code> (exclusive).
+   */
+  private static boolean decode(CompiledTemplate.Instruction instruction, String uri, int start, int end,
+                                Map<String, Object> values) {
+    if (start == end) {
+      return true;
+    }
+    if (!uri.startsWith(instruction.first, start) || start + instruction.first.length() > end) {
+      return false;
+    }
+    List<String> items = split(uri, start + instruction.first.length(), end, instruction.sep);
+    return instruction.named ? decodeNamed(instruction, items, values) : decodeUnnamed(instruction, items, values);
+  }
+
+  private static boolean decodeUnnamed(CompiledTemplate.Instruction instruction, List<String> items,
+                                       Map<String, Object> values) {
+    String[] names = instruction.names;
+    boolean commaSeparated = instruction.sep.length() == 1 && instruction.sep.charAt(0) == COMMA;
+    int item = 0;
+    for (int i = 0; i < names.length && item < items.size(); i++) {
+      int remaining = items.size() - item;
+      int following = names.length - i - 1;
+      Object value;
+      if (instruction.modifiers[i] == Modifier.EXPLODE) {
+        int count = Math.max(1, remaining - following);
+        value = decodeExploded(items.subList(item, item + count));
+        item += count;
+      } else if (following == 0 && remaining > 1) {
+        List<String> rest = items.subList(item, items.size());
+        // the separator is either a list separator, or a character the value itself may hold
+        value = commaSeparated ? decodeList(rest) : decodeValue(join(rest, instruction.sep));
+        item = items.size();
+      } else {
+        value = decodeValue(items.get(item++));
+      }
+      if (value == null) {
+        return false;
+      }
+      Object previous = values.put(names[i], value);
+      if (previous != null && !previous.equals(value)) {
+        return false;
+      }
+    }
+    return item == items.size();
+  }
+
+  private static boolean decodeNamed(CompiledTemplate.Instruction instruction, List<String> items,
+                                     Map<String, Object> values) {
+    for (String item : items) {
+      int equal = item.indexOf(EQUAL);
+      String key = equal < 0 ? item : item.substring(0, equal);
+      String raw = equal < 0 ? StringPool.EMPTY : item.substring(equal + 1);
+      int i = indexOf(instruction.names, key);
+      if (i >= 0 && instruction.modifiers[i] != Modifier.EXPLODE) {
+        if (values.containsKey(key)) {
+          return false;
+        }
+        Object value = decodeValue(raw);
+        if (value == null) {
+          return false;
+        }
+        values.put(key, value);
+      } else if (i >= 0) {
+        String value = PercentDecoder.tryDecode(raw, 0, raw.length());
+        if (value == null || !addToList(values, key, value)) {
+          return false;
+        }
+      } else {
+        int exploded = firstExplodedMap(instruction, values);
+        String name = PercentDecoder.tryDecode(key, 0, key.length());
+        String value = PercentDecoder.tryDecode(raw, 0, raw.length());
+        if (exploded < 0 || name == null || value == null) {
+          return false;
+        }
+        addToMap(values, instruction.names[exploded], name, value);
+      }
+    }
+    return true;
+  }
+
+  private static Object decodeExploded(List<String> items) {
+    boolean pairs = true;
+    for (String item : items) {
+      pairs &= item.indexOf(EQUAL) > 0;
+    }
+    if (!pairs) {
+      return decodeList(items);
+    }
+    Map<String, String> map = new LinkedHashMap<String, String>();
+    for (String item : items) {
+      int equal = item.indexOf(EQUAL);
+      String key = PercentDecoder.tryDecode(item, 0, equal);
+      String value = PercentDecoder.tryDecode(item, equal + 1, item.length());
+      if (key == null || value == null) {
+        return null;
+      }
+      map.put(key, value);
+    }
+    return map;
+  }
+
+  /**
+   * @return the decoded string, or a list if the value holds unencoded commas
+   */
+  private static Object decodeValue(String raw) {
+    if (raw.indexOf(COMMA) < 0) {
+      return PercentDecoder.tryDecode(raw, 0, raw.length());
+    }
+    return decodeList(split(raw, 0, raw.length(), String.valueOf(COMMA)));
+  }
+
+  private static List<String> decodeList(List<String> items) {
+    List<String> list = new ArrayList<String>(items.size());
+    for (String item : items) {
+      String value = PercentDecoder.tryDecode(item, 0, item.length());
+      if (value == null) {
+        return null;
+      }
+      list.add(value);
+    }
+    return list;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static boolean addToList(Map<String, Object> values, String name, String value) {
+    Object current = values.get(name);
+    if (current == null) {
+      current = new ArrayList<String>();
+      values.put(name, current);
+    } else if (!(current instanceof List)) {
+      return false;
+    }
+    ((List<String>) current).add(value);
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void addToMap(Map<String, Object> values, String name, String key, String value) {
+    Map<String, String> map = (Map<String, String>) values.get(name);
+    if (map == null) {
+      map = new LinkedHashMap<String, String>();
+      values.put(name, map);
+    }
+    map.put(key, value);
+  }
+
+  private static int firstExplodedMap(CompiledTemplate.Instruction instruction, Map<String, Object> values) {
+    for (int i = 0; i < instruction.names.length; i++) {
+      if (instruction.modifiers[i] == Modifier.EXPLODE && !(values.get(instruction.names[i]) instanceof List)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(String[] names, String name) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static String join(List<String> items, String separator) {
+    StringBuilder sb = new StringBuilder();
+    for (String item : items) {
+      if (sb.length() > 0) {
+        sb.append(separator);
+      }
+      sb.append(item);
+    }
+    return sb.toString();
+  }
+
+  private static List<String> split(String value, int start, int end, String separator) {
+    List<String> items = new ArrayList<String>();
+    int index;
+    while ((index = value.indexOf(separator, start)) >= 0 && index + separator.length() <= end) {
+      items.add(value.substring(start, index));
+      start = index + separator.length();
+    }
+    items.add(value.substring(start, end));
+    return items;
+  }
+
+  /**
+   * <p>
+   * Matching state of one URI.
+   * </p>
+   * <p>
+   * Unless a variable is found in several expressions, whether the instructions from a given index match the URI
+   * from a given position does not depend on the variables bound before, so failed pairs are remembered: without
+   * that, each candidate end of an expression would try again every end of the following ones, which is exponential
+   * in the number of expressions. Repeated variables make the outcome depend on the values bound before, so only
+   * the decoding budget bounds such templates.
+   * </p>
+   */
+  private final class Attempt {
+
+    private final String uri;
+
+    /**
+     * Failed (index, position) pairs, indexed by <code>index * (uri.length() + 1) + position</code>
+     */
+    private boolean[] failed;
+
+    /**
+     * Decoded values of each expression, reused across its candidate ends
+     */
+    private final Map<String, Object>[] values;
+
+    /**
+     * Names first bound by each expression, to unbind when backtracking
+     */
+    private final List<String>[] bound;
+
+    private int budget = MAX_DECODED;
+
+    @SuppressWarnings("unchecked")
+    Attempt(String uri) {
+      this.uri = uri;
+      this.values = new Map[instructions.length];
+      this.bound = new List[instructions.length];
+    }
+
+    boolean match(int index, int position, Map<String, Object> variables) {
+      if (index == instructions.length) {
+        return position == uri.length();
+      }
+      CompiledTemplate.Instruction instruction = instructions[index];
+      if (instruction.literal != null) {
+        return uri.startsWith(instruction.literal, position)
+            && match(index + 1, position + instruction.literal.length(), variables);
+      }
+      int key = index * (uri.length() + 1) + position;
+      if (budget < 0 || (!repeated && failed != null && failed[key])) {
+        return false;
+      }
+
+      Map<String, Object> values = this.values[index];
+      List<String> bound = this.bound[index];
+      if (values == null) {
+        this.values[index] = values = new LinkedHashMap<String, Object>();
+        this.bound[index] = bound = new ArrayList<String>();
+      }
+      int maxEnd = scan(instruction, uri, position);
+      String nextLiteral = index + 1 < instructions.length ? instructions[index + 1].literal : null;
+      boolean last = index + 1 == instructions.length;
+      for (int end = maxEnd; end >= position; end--) {
+        if ((last && end != uri.length()) || (nextLiteral != null && !uri.startsWith(nextLiteral, end))) {
+          continue;
+        }
+        budget -= end - position;
+        if (budget < 0) {
+          return false;
+        }
+        values.clear();
+        bound.clear();
+        if (decode(instruction, uri, position, end, values) && bind(values, variables, bound)) {
+          if (match(index + 1, end, variables)) {
+            return true;
+          }
+        }
+        for (String name : bound) {
+          variables.remove(name);
+        }
+      }
+      if (repeated) {
+        return false;
+      }
+      if (failed == null) {
+        failed = new boolean[instructions.length * (uri.length() + 1)];
+      }
+      failed[key] = true;
+      return false;
+    }
+
+    /**
+     * Binds the decoded values, unless a variable bound before has another value.
+     *
+     * @param bound receives the names bound for the first time
+     */
+    private boolean bind(Map<String, Object> values, Map<String, Object> variables, List<String> bound) {
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        Object previous = variables.get(entry.getKey());
+        if (previous == null) {
+          variables.put(entry.getKey(), entry.getValue());
+          bound.add(entry.getKey());
+        } else if (!previous.equals(entry.getValue())) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.template;
+
+import com.seanchenxi.gwt.uri.template.exception.MalformedExpressionException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Single-pass URI Template scanner.
+ * </p>
+ * <p>
+ * Literals, operators, variable names and modifiers are read in one walk over the characters,
+ * without any regular expression, so that the parser behaves the same on the JVM and in GWT.
+ * Malformed input is reported through {@link MalformedExpressionException} with the offset
+ * of the offending character.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ * @see <a href="http://tools.ietf.org/html/rfc6570#section-2">Syntax | RFC 6570</a>
+ */
+final class TemplateParser {
+
+  private static final char OPEN = '{';
+  private static final char CLOSE = '}';
+  private static final char SEPARATOR = ',';
+  private static final char PREFIX = ':';
+  private static final char EXPLODE = '*';
+
+  /**
+   * Operators reserved for future extensions
+   */
+  private static final String RESERVED_OPERATORS = "=,!@|";
+
+  private static final int MAX_PREFIX_DIGITS = 4;
+
+  /**
+   * Parses a whole URI template into its literal and expression partials.
+   */
+  static List<TemplatePartial> parse(String template) {
+    return new TemplateParser(template).partials();
+  }
+
+  /**
+   * Parses exactly one expression, braces included.
+   */
+  static Expression parseExpression(String expression) {
+    TemplateParser parser = new TemplateParser(expression);
+    Expression result = parser.expression();
+    parser.expectEnd();
+    return result;
+  }
+
+  /**
+   * Parses exactly one variable specifier, like <code>var</code>, <code>var:3</code> or <code>var*</code>.
+   */
+  static VarSpec parseVarSpec(String varSpec) {
+    TemplateParser parser = new TemplateParser(varSpec);
+    VarSpec result = parser.varSpec();
+    parser.expectEnd();
+    return result;
+  }
+
+  /**
+   * @return the index of the first character after the variable name starting at <code>from</code>
+   */
+  static int scanVarName(CharSequence input, int from, int to) {
+    int i = from;
+    while (i < to) {
+      char c = input.charAt(i);
+      if (isVarChar(c)) {
+        i++;
+      } else if (c == '%' && i + 2 < to && isHex(input.charAt(i + 1)) && isHex(input.charAt(i + 2))) {
+        i += 3;
+      } else {
+        break;
+      }
+    }
+    return i;
+  }
+
+  private static boolean isVarChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '.';
+  }
+
+  private static boolean isHex(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || (c >= 'a' && c <= 'f');
+  }
+
+  private final String input;
+
+  private final int length;
+
+  private int position;
+
+  private TemplateParser(String input) {
+    this.input = input;
+    this.length = input.length();
+  }
+
+  private List<TemplatePartial> partials() {
+    List<TemplatePartial> partials = new ArrayList<TemplatePartial>();
+    int literalStart = 0;
+    while (position < length) {
+      char c = input.charAt(position);
+      if (c == OPEN) {
+        if (position > literalStart) {
+          partials.add(new Literal(input.substring(literalStart, position)));
+        }
+        partials.add(expression());
+        literalStart = position;
+      } else if (c == CLOSE) {
+        throw error("Unexpected '" + CLOSE + "' outside of an expression", position);
+      } else {
+        position++;
+      }
+    }
+    if (literalStart < length) {
+      partials.add(new Literal(input.substring(literalStart)));
+    }
+    return partials;
+  }
+
+  private Expression expression() {
+    int open = position;
+    if (position >= length || input.charAt(position) != OPEN) {
+      throw error("Expression should begin with '" + OPEN + "'", position);
+    }
+    position++;
+    Operator operator = Operator.NUL;
+    if (position < length) {
+      char c = input.charAt(position);
+      Operator found = Operator.forSign(c);
+      if (found != null) {
+        operator = found;
+        position++;
+      } else if (RESERVED_OPERATORS.indexOf(c) >= 0) {
+        throw error("Operator '" + c + "' is reserved for future extensions", position);
+      }
+    }
+    List<VarSpec> varSpecs = new ArrayList<VarSpec>();
+    while (true) {
+      varSpecs.add(varSpec());
+      if (position >= length) {
+        throw error("Unclosed expression", open);
+      }
+      char c = input.charAt(position++);
+      if (c == CLOSE) {
+        return new Expression(operator, varSpecs);
+      } else if (c != SEPARATOR) {
+        throw error("Unexpected character '" + c + "' in expression", position - 1);
+      }
+    }
+  }
+
+  private VarSpec varSpec() {
+    int start = position;
+    position = scanVarName(input, position, length);
+    if (position == start) {
+      if (position >= length) {
+        throw error("Missing variable name", position);
+      }
+      char c = input.charAt(position);
+      throw error(c == CLOSE || c == SEPARATOR ? "Missing variable name"
+          : "Invalid character '" + c + "' in variable name", position);
+    }
+    String name = input.substring(start, position);
+    if (position < length) {
+      char c = input.charAt(position);
+      if (c == EXPLODE) {
+        position++;
+        return new ExplodeVarSpec(name);
+      } else if (c == PREFIX) {
+        position++;
+        return new PrefixVarSpec(name, maxLength());
+      }
+    }
+    return new VarSpec(name);
+  }
+
+  private int maxLength() {
+    int start = position;
+    int value = 0;
+    while (position < length && position - start < MAX_PREFIX_DIGITS) {
+      char c = input.charAt(position);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      value = value * 10 + (c - '0');
+      position++;
+    }
+    if (position == start || input.charAt(start) == '0') {
+      throw error("Wrong prefix modifier max length, it should be positive and < 10000", start);
+    }
+    if (position < length) {
+      char c = input.charAt(position);
+      if (c >= '0' && c <= '9') {
+        throw error("Wrong prefix modifier max length, it should be positive and < 10000", start);
+      }
+    }
+    return value;
+  }
+
+  private void expectEnd() {
+    if (position < length) {
+      throw error("Unexpected character '" + input.charAt(position) + "'", position);
+    }
+  }
+
+  private MalformedExpressionException error(String message, int at) {
+    return new MalformedExpressionException(message + " at position " + at + " of \"" + input + "\"", at);
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.seanchenxi.gwt.uri.template;
 
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -33,10 +34,19 @@ public abstract class TemplatePartial<V> {
     return this.position;
   }
 
+  /**
+   * @deprecated templates already built are not affected, the position is set when the partial is added to a
+   * {@link UriTemplateBuilder}
+   */
+  @Deprecated
   public void setPosition(int position) {
     this.position = position;
   }
 
+  void position(int position) {
+    this.position = position;
+  }
+
   @Override
   public String toString() {
     return template();
@@ -44,6 +54,22 @@ public abstract class TemplatePartial<V> {
 
   public abstract V expand(Map<String, Object> value);
 
+  /**
+   * Writes the expansion of this partial into the given sink.
+   * By default, the result of {@link #expand(Map)} is appended.
+   */
+  public void expandTo(Map<String, Object> values, Appendable out) throws IOException {
+    out.append(String.valueOf(expand(values)));
+  }
+
+  public void expandTo(Map<String, Object> values, StringBuilder out) {
+    try {
+      expandTo(values, (Appendable) out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   public abstract String template();
 
 }
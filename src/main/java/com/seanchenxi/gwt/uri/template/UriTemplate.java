@@ -16,6 +16,7 @@
 
 package com.seanchenxi.gwt.uri.template;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -23,6 +24,20 @@ import java.util.List;
 import java.util.Map;
 
 /**
+ * <p>
+ * A URI Template, made of literals and expressions.
+ * </p>
+ * <p>
+ * Expansion goes through the {@link CompiledTemplate} built from the partials given to this template, so changes
+ * made afterwards to the partials themselves are not taken into account, only {@link #setPartials(List)} is.
+ * To share a template between threads, use its {@link #compile() compiled} form, which is immutable,
+ * with the default values {@link CompiledTemplate#bind(Bindings) bound} to it.
+ * </p>
+ * <p>
+ * Templates are equal when they have the same {@link #template() template} and values. Only the template is
+ * hashed, as the values map may change: a template used as a hash key must not be given other partials.
+ * </p>
+ *
  * @author Xi CHEN
  * @since 13/12/15.
  */
@@ -32,19 +47,27 @@ public class UriTemplate extends TemplatePartial<String> {
 
   private Map<String, Object> values = new HashMap<String, Object>();
 
-  private String template;
+  private EncodingCache encodingCache;
+
+  private volatile CompiledTemplate compiled;
 
   public UriTemplate(List<TemplatePartial> partials, Map<String, Object> values) {
-    this.partials = partials;
+    this(partials, values, null);
+  }
+
+  public UriTemplate(List<TemplatePartial> partials, Map<String, Object> values, EncodingCache encodingCache) {
+    this.encodingCache = encodingCache;
+    this.setPartials(partials);
     this.values = values;
   }
 
   public List<TemplatePartial> getPartials() {
-    return partials;
+    return Collections.unmodifiableList(partials);
   }
 
   public void setPartials(List<TemplatePartial> partials) {
-    this.partials = partials;
+    this.partials = new ArrayList<TemplatePartial>(partials);
+    this.compiled = CompiledTemplate.compile(this.partials, encodingCache);
   }
 
   public Map<String, Object> getValues() {
@@ -55,29 +78,109 @@ public class UriTemplate extends TemplatePartial<String> {
     this.values = values;
   }
 
+  public EncodingCache getEncodingCache() {
+    return encodingCache;
+  }
+
+  /**
+   * @param encodingCache the cache of encoded values used by this template,
+   *                      or null to use the {@link EncodingCache#getGlobal() global} one
+   */
+  public void setEncodingCache(EncodingCache encodingCache) {
+    this.encodingCache = encodingCache;
+    this.compiled = CompiledTemplate.compile(this.partials, encodingCache);
+  }
+
+  /**
+   * @return the immutable expansion plan of this template's current partials
+   */
+  public CompiledTemplate compile(){
+    return compiled;
+  }
+
   public String expand(){
     return expand(Collections.unmodifiableMap(this.values));
   }
 
   @Override
   public String expand(Map<String, Object> values){
-    StringBuilder sb = new StringBuilder();
-    for(TemplatePartial partial : partials){
-      sb.append(partial.expand(values));
+    return compiled.expand(values);
+  }
+
+  @Override
+  public void expandTo(Map<String, Object> values, Appendable out) throws IOException {
+    compiled.expandTo(values, out);
+  }
+
+  @Override
+  public void expandTo(Map<String, Object> values, StringBuilder out) {
+    compiled.expandTo(values, out);
+  }
+
+  /**
+   * <p>
+   * Renders the expressions whose variables are known into literals, see {@link TemplateFolder}.
+   * </p>
+   * <p>
+   * The values of this template are known as well, the given ones taking precedence, and a null value
+   * marks a variable as known to be undefined. The known values still referenced by the returned template,
+   * in expressions that could not be rendered, become its values.
+   * </p>
+   *
+   * @return a new template, holding only the expressions that remain to be expanded
+   */
+  public UriTemplate partialExpand(Map<String, Object> values){
+    Map<String, Object> known = new HashMap<String, Object>();
+    if(this.values != null){
+      known.putAll(this.values);
+    }
+    if(values != null){
+      known.putAll(values);
+    }
+    Map<String, Object> remaining = new HashMap<String, Object>();
+    for(Map.Entry<String, Object> entry : known.entrySet()){
+      if(entry.getValue() != null){
+        remaining.put(entry.getKey(), entry.getValue());
+      }
     }
-    return sb.toString();
+    return new UriTemplate(TemplateFolder.fold(partials, known), remaining, encodingCache);
+  }
+
+  /**
+   * @see CompiledTemplate#expandToBytes(Map)
+   */
+  public byte[] expandToBytes(Map<String, Object> values){
+    return compiled.expandToBytes(values);
+  }
+
+  /**
+   * @return the variables of the given URI, or null if it does not match this template
+   * @see CompiledTemplate#match(String)
+   */
+  public Map<String, Object> match(String uri){
+    return compiled.match(uri);
   }
 
   @Override
   public String template(){
-    if(this.template == null){
-      StringBuilder sb = new StringBuilder();
-      for(TemplatePartial partial : partials){
-        sb.append(partial);
-      }
-      return this.template = sb.toString();
+    return compiled.template();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
     }
-    return this.template;
+    UriTemplate that = (UriTemplate) o;
+    return template().equals(that.template())
+        && (values == null ? that.values == null : values.equals(that.values));
   }
 
+  @Override
+  public int hashCode() {
+    return template().hashCode();
+  }
 }
@@ -32,32 +32,7 @@ public class UriTemplateBuilder {
   }
 
   public static UriTemplateBuilder create(String raw){
-    UriTemplateBuilder builder = new UriTemplateBuilder();
-    String[] split = raw.split(Expression.ESCAPED_OPEN);
-    for(String partial : split){
-      findTemplatePartial(partial, builder.partials);
-    }
-    return builder;
-  }
-
-  private static void findTemplatePartial(String partial, List<TemplatePartial> partials) {
-    if(!partial.trim().isEmpty()){
-      if(!partial.contains(Expression.CLOSE)){
-        partials.add(Literal.wrap(partial));
-      }else{
-        String[] split = partial.split(Expression.ESCAPED_CLOSE);
-        String expression = split[0].trim();
-        if(!expression.isEmpty()){
-          partials.add(ExpressionBuilder.wrap(expression));
-        }
-        if(split.length > 1){
-          String literal = split[1];
-          if(!literal.isEmpty()){
-            partials.add(Literal.wrap(literal));
-          }
-        }
-      }
-    }
+    return new UriTemplateBuilder().raw(raw);
   }
 
   private String baseUrl;
@@ -66,21 +41,55 @@ public class UriTemplateBuilder {
 
   private Map<String, Object> values = new HashMap<String, Object>();
 
+  private EncodingCache encodingCache;
+
+  private boolean foldValues;
+
   public UriTemplateBuilder baseUrl(String baseUrl){
     this.baseUrl = baseUrl;
     return this;
   }
 
+  public UriTemplateBuilder encodingCache(EncodingCache encodingCache){
+    this.encodingCache = encodingCache;
+    return this;
+  }
+
+  /**
+   * Renders the expressions whose variables are all set on this builder into literals when built,
+   * instead of expanding these constants again and again.
+   * Their values can no longer be overridden when expanding.
+   *
+   * @see UriTemplate#partialExpand(Map)
+   */
+  public UriTemplateBuilder foldValues(){
+    this.foldValues = true;
+    return this;
+  }
+
   public UriTemplateBuilder raw(String raw) {
     if(raw != null && !raw.trim().isEmpty()){
-      String[] split = raw.split(Expression.ESCAPED_OPEN);
-      for(String partial : split){
-        UriTemplateBuilder.findTemplatePartial(partial, partials);
+      for(TemplatePartial partial : parse(raw)){
+        add(partial);
       }
     }
     return this;
   }
 
+  private static List<TemplatePartial> parse(String raw) {
+    TemplateListener listener = UriTemplates.listener;
+    long start = listener.time();
+    List<TemplatePartial> partials;
+    try {
+      partials = TemplateParser.parse(raw);
+    } catch (RuntimeException e) {
+      listener.onParseFailure(raw, e);
+      throw e;
+    }
+    listener.onParse(raw, listener.time() - start);
+    return partials;
+  }
+
   public UriTemplateBuilder expression(Expression expression) {
     return add(expression);
   }
@@ -107,7 +116,7 @@ public class UriTemplateBuilder {
   public UriTemplateBuilder add(TemplatePartial partial){
     if(partial != null){
       int position = this.partials.size();
-      partial.setPosition(position);
+      partial.position(position);
       this.partials.add(partial);
     }
     return this;
@@ -154,10 +163,36 @@ public class UriTemplateBuilder {
     return add(ExpressionBuilder.continuation(varSpec));
   }
 
+  /**
+   * @return the immutable compiled template, with the values set on this builder bound as default values
+   */
+  public CompiledTemplate compile(){
+    return build().compile().bind(Bindings.of(values));
+  }
+
+  /**
+   * Adjacent literals, including the base URL, are merged into one.
+   */
   public UriTemplate build(){
-    if(baseUrl != null){
-      partials.add(0, Literal.wrap(baseUrl));
+    List<TemplatePartial> merged = new ArrayList<TemplatePartial>(partials.size() + 1);
+    StringBuilder literal = new StringBuilder(baseUrl == null ? StringPool.EMPTY : baseUrl);
+    for(TemplatePartial partial : partials){
+      if(partial instanceof Literal){
+        if(((Literal) partial).getValue() != null){
+          literal.append(((Literal) partial).getValue());
+        }
+        continue;
+      }
+      if(literal.length() > 0){
+        merged.add(Literal.wrap(literal.toString()));
+        literal.setLength(0);
+      }
+      merged.add(partial);
+    }
+    if(literal.length() > 0){
+      merged.add(Literal.wrap(literal.toString()));
     }
-    return new UriTemplate(partials, values);
+    UriTemplate template = new UriTemplate(merged, values, encodingCache);
+    return foldValues ? template.partialExpand(null) : template;
   }
 }
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.template;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Finds which of many templates matches a URI.
+ * </p>
+ * <p>
+ * Templates are indexed into a trie, where literal characters and expressions are the edges: templates sharing
+ * a prefix (<code>/users/</code>, then <code>{id}</code>, then <code>/</code>...) share the same nodes, so that
+ * routing a URI only walks the branches it can actually match, whatever the number of templates.
+ * </p>
+ * <p>
+ * The most specific template wins: at each node, a literal character is preferred over an expression, and
+ * expressions producing fewer characters (e.g. <code>{id}</code>) over those producing reserved characters
+ * (e.g. <code>{+path}</code>). Templates with the same structure are tried in the order they were added.
+ * </p>
+ * <p>
+ * Expressions which failed to match the rest of a URI from a given position are not tried again from that
+ * position, so that routing stays polynomial in the length of the URI, whatever the number of adjacent expressions.
+ * </p>
+ * <p>
+ * Templates must all be added before routing URIs from several threads.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class UriTemplateRouter<T> {
+
+  private final Node<T> root = new Node<T>();
+
+  private int size;
+
+  /**
+   * @see UriTemplates#parse(String)
+   */
+  public UriTemplateRouter<T> add(String template, T target) {
+    return add(UriTemplates.parse(template), target);
+  }
+
+  public UriTemplateRouter<T> add(UriTemplate template, T target) {
+    return add(template.compile(), target);
+  }
+
+  /**
+   * @throws IllegalArgumentException if the template holds foreign {@link TemplatePartial} implementations
+   */
+  public UriTemplateRouter<T> add(CompiledTemplate template, T target) {
+    Node<T> node = root;
+    for (CompiledTemplate.Instruction instruction : template.getInstructions()) {
+      if (instruction.literal != null) {
+        for (int i = 0; i < instruction.literal.length(); i++) {
+          node = node.literal(instruction.literal.charAt(i));
+        }
+      } else if (instruction.names != null) {
+        node = node.expression(instruction);
+      } else {
+        throw new IllegalArgumentException("Cannot route to the template partial " + instruction.partial);
+      }
+    }
+    node.routes.add(new Match<T>(template, target, null));
+    size++;
+    return this;
+  }
+
+  /**
+   * @return the most specific template matching the given URI, with its variables, or null if none matches
+   */
+  public Match<T> route(String uri) {
+    return route(root, uri, 0, new HashMap<Node<T>, boolean[]>());
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param failed positions from which the nodes holding expressions did not match the rest of the URI
+   */
+  private static <T> Match<T> route(Node<T> node, String uri, int position, Map<Node<T>, boolean[]> failed) {
+    boolean[] positions = node.edges.isEmpty() ? null : failed.get(node);
+    if (positions != null && positions[position]) {
+      return null;
+    }
+    if (position == uri.length()) {
+      for (Match<T> route : node.routes) {
+        Map<String, Object> variables = route.template.match(uri);
+        if (variables != null) {
+          return new Match<T>(route.template, route.target, variables);
+        }
+      }
+    } else {
+      Node<T> child = node.child(uri.charAt(position));
+      Match<T> match = child == null ? null : route(child, uri, position + 1, failed);
+      if (match != null) {
+        return match;
+      }
+    }
+    if (node.edges.isEmpty()) {
+      return null;
+    }
+    for (Edge<T> edge : node.edges) {
+      for (int end = TemplateMatcher.scan(edge.instruction, uri, position); end >= position; end--) {
+        Match<T> match = route(edge.node, uri, end, failed);
+        if (match != null) {
+          return match;
+        }
+      }
+    }
+    if (positions == null) {
+      failed.put(node, positions = new boolean[uri.length() + 1]);
+    }
+    positions[position] = true;
+    return null;
+  }
+
+  /**
+   * A routed template, with the variables extracted from the URI.
+   */
+  public static final class Match<T> {
+
+    private final CompiledTemplate template;
+
+    private final T target;
+
+    private final Map<String, Object> variables;
+
+    private Match(CompiledTemplate template, T target, Map<String, Object> variables) {
+      this.template = template;
+      this.target = target;
+      this.variables = variables;
+    }
+
+    public CompiledTemplate getTemplate() {
+      return template;
+    }
+
+    public T getTarget() {
+      return target;
+    }
+
+    /**
+     * @see CompiledTemplate#match(String)
+     */
+    public Map<String, Object> getVariables() {
+      return variables;
+    }
+  }
+
+  private static final class Node<T> {
+
+    private char[] chars = new char[0];
+
+    @SuppressWarnings("unchecked")
+    private Node<T>[] children = new Node[0];
+
+    private final List<Edge<T>> edges = new ArrayList<Edge<T>>(0);
+
+    private final List<Match<T>> routes = new ArrayList<Match<T>>(0);
+
+    Node<T> child(char c) {
+      int i = indexOf(c);
+      return i >= 0 ? children[i] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    Node<T> literal(char c) {
+      int i = indexOf(c);
+      if (i >= 0) {
+        return children[i];
+      }
+      // keeps the characters sorted, for the binary search
+      i = -i - 1;
+      char[] chars = new char[this.chars.length + 1];
+      Node<T>[] children = new Node[chars.length];
+      System.arraycopy(this.chars, 0, chars, 0, i);
+      System.arraycopy(this.children, 0, children, 0, i);
+      System.arraycopy(this.chars, i, chars, i + 1, this.chars.length - i);
+      System.arraycopy(this.children, i, children, i + 1, this.children.length - i);
+      chars[i] = c;
+      children[i] = new Node<T>();
+      this.chars = chars;
+      this.children = children;
+      return children[i];
+    }
+
+    /**
+     * Expressions producing the same characters share the same edge, whatever their variable names.
+     */
+    Node<T> expression(CompiledTemplate.Instruction instruction) {
+      int i = 0;
+      for (; i < edges.size(); i++) {
+        Edge<T> edge = edges.get(i);
+        if (edge.accepts(instruction)) {
+          return edge.node;
+        }
+        if (edge.instruction.allow.ordinal() > instruction.allow.ordinal()) {
+          break;
+        }
+      }
+      Edge<T> edge = new Edge<T>(instruction);
+      edges.add(i, edge);
+      return edge.node;
+    }
+
+    private int indexOf(char c) {
+      int low = 0;
+      int high = chars.length - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        if (chars[middle] < c) {
+          low = middle + 1;
+        } else if (chars[middle] > c) {
+          high = middle - 1;
+        } else {
+          return middle;
+        }
+      }
+      return -(low + 1);
+    }
+  }
+
+  private static final class Edge<T> {
+
+    private final CompiledTemplate.Instruction instruction;
+
+    private final Node<T> node = new Node<T>();
+
+    Edge(CompiledTemplate.Instruction instruction) {
+      this.instruction = instruction;
+    }
+
+    boolean accepts(CompiledTemplate.Instruction other) {
+      return instruction.allow == other.allow && instruction.first.equals(other.first)
+          && instruction.sep.equals(other.sep);
+    }
+  }
+}
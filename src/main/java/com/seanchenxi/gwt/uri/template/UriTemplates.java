@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri.template;
+
+/**
+ * <p>
+ * Shared, thread-safe cache of parsed templates.
+ * </p>
+ * <p>
+ * The same raw templates tend to be received over and over (e.g. link templates of hypermedia responses),
+ * {@link #parse(String)} parses each of them once and then returns the same immutable {@link CompiledTemplate}
+ * until it gets evicted, least recently used first, once the cache is full.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class UriTemplates {
+
+  public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+  private static volatile BoundedCache<String, CompiledTemplate> cache =
+      new BoundedCache<String, CompiledTemplate>(DEFAULT_MAXIMUM_SIZE);
+
+  static volatile TemplateListener listener = TemplateListener.NONE;
+
+  /**
+   * @return the compiled template, parsed on the first call for the given raw template
+   * @throws com.seanchenxi.gwt.uri.template.exception.MalformedExpressionException if the template is malformed
+   */
+  public static CompiledTemplate parse(String raw) {
+    BoundedCache<String, CompiledTemplate> cache = UriTemplates.cache;
+    CompiledTemplate compiled = cache.get(raw);
+    listener.onCacheLookup(raw, compiled != null);
+    if (compiled == null) {
+      compiled = UriTemplateBuilder.create(raw).build().compile();
+      cache.put(raw, compiled);
+    }
+    return compiled;
+  }
+
+  /**
+   * @return a value copied verbatim into expansions, whatever the operator
+   * @throws IllegalArgumentException if the value is not a valid percent-encoded string
+   * @see EncodedValue#encoded(String)
+   */
+  public static EncodedValue encoded(String encoded) {
+    return EncodedValue.encoded(encoded);
+  }
+
+  /**
+   * Replaces the cache by an empty one holding at most the given number of templates.
+   */
+  public static void setMaximumSize(int maximumSize) {
+    cache = new BoundedCache<String, CompiledTemplate>(maximumSize);
+  }
+
+  /**
+   * @param listener notified of the parsing and expansion of all templates, or null to stop notifying
+   */
+  public static void setListener(TemplateListener listener) {
+    UriTemplates.listener = listener == null ? TemplateListener.NONE : listener;
+  }
+
+  public static TemplateListener getListener() {
+    return listener;
+  }
+
+  public static CacheStats stats() {
+    return cache.stats();
+  }
+
+  public static void clear() {
+    cache.clear();
+  }
+
+  private UriTemplates() {
+  }
+}
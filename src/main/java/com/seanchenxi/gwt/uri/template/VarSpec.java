@@ -19,14 +19,12 @@ package com.seanchenxi.gwt.uri.template;
 
 import com.seanchenxi.gwt.uri.template.exception.MalformedExpressionException;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import static com.seanchenxi.gwt.uri.template.StringPool.COMMA;
-import static java.util.Collections.singletonList;
-import static java.util.Collections.unmodifiableList;
 
 /**
  * @author Xi CHEN
@@ -34,66 +32,176 @@ import static java.util.Collections.unmodifiableList;
  */
 public class VarSpec extends TemplatePartial<VarSpec.Value> {
 
+  /**
+   * <p>
+   * The resolved value of a variable.
+   * </p>
+   * <p>
+   * A simple string expansion holds its item directly, printed when read. Lists and associative arrays are
+   * read-only views of the given collections: their items are printed while being iterated, so that nothing is
+   * copied, and each iteration goes through the collections again.
+   * </p>
+   */
   public static class Value<T> implements Iterable<T> {
 
     enum Type {
       STRING, LIST, PAIR
     }
 
-    private Type type;
-    private List<T> values;
-    private String name;
+    /**
+     * Maximum length of the items given as is, not to be printed
+     */
+    private static final int RAW = -1;
 
-    Value(String name, Type type, List<T> values) {
+    private final Type type;
+    private final String name;
+
+    /**
+     * The item of a {@link Type#STRING} value, null if there is none
+     */
+    private final Object item;
+
+    /**
+     * The prefix length the item is printed with, or {@link #RAW}
+     */
+    private final int maxLength;
+
+    /**
+     * The items of the other values
+     */
+    private final Iterable<T> items;
+
+    Value(String name, Type type, Iterable<T> items) {
       this.name = name;
       this.type = type;
-      this.values = unmodifiableList(values == null ? new ArrayList<T>() : values);
+      this.item = null;
+      this.maxLength = RAW;
+      this.items = items;
+    }
+
+    /**
+     * A simple string expansion, printing the given item when read
+     */
+    Value(String name, Object item, int maxLength) {
+      this.name = name;
+      this.type = Type.STRING;
+      this.item = item;
+      this.maxLength = maxLength;
+      this.items = null;
     }
 
     public Value(String name, T item) {
-      this(name, Type.STRING, item == null ? null : singletonList(item));
+      this(name, item, RAW);
     }
 
     public String getName() {
       return name;
     }
 
-    private void setName(String name) {
-      this.name = name;
-    }
-
     boolean is(Type type){
-      return this.type.equals(type);
+      return this.type == type;
     }
 
     Type getType() {
       return type;
     }
 
+    /**
+     * @return the item of a simple string expansion, or null if there is none or this value is not simple
+     */
+    @SuppressWarnings("unchecked")
+    public T getItem() {
+      return (T) (maxLength == RAW ? item : ExpansionProcessor.doPrint(item, maxLength));
+    }
+
     public boolean isEmpty() {
-      return values.isEmpty() || (is(Type.STRING) && String.valueOf(values.get(0)).isEmpty());
+      if(type != Type.STRING){
+        return !items.iterator().hasNext();
+      }
+      return item == null || (item instanceof CharSequence ? ((CharSequence) item).length() == 0
+          : String.valueOf(item).isEmpty());
     }
 
     @Override
     public Iterator<T> iterator() {
-      return values.iterator();
+      if(type == Type.STRING){
+        return new ItemIterator<T>(getItem());
+      }
+      final Iterator<T> iterator = items.iterator();
+      return new Iterator<T>() {
+        @Override
+        public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override
+        public T next() {
+          return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
     }
 
     @Override
     public String toString() {
+      StringBuilder values = new StringBuilder("[");
+      for (T value : this) {
+        values.append(values.length() > 1 ? ", " : "").append(value);
+      }
       return "Value{" +
           "type=" + type +
-          ", values=" + values +
+          ", values=" + values.append(']') +
           ", name='" + name + '\'' +
           '}';
     }
   }
 
+  /**
+   * Iterates over at most one item.
+   */
+  private static final class ItemIterator<T> implements Iterator<T> {
+
+    private T item;
+
+    ItemIterator(T item) {
+      this.item = item;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return item != null;
+    }
+
+    @Override
+    public T next() {
+      if(item == null){
+        throw new NoSuchElementException();
+      }
+      T next = item;
+      item = null;
+      return next;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   static final String SEPARATOR = COMMA;
 
   private String name;
   private Modifier modifier = Modifier.NONE;
 
+  /**
+   * The standalone expansion plan of this variable, built on first use
+   */
+  CompiledTemplate.Instruction instruction;
+
   public VarSpec(String name) {
     this(name, Modifier.NONE);
   }
@@ -107,8 +215,13 @@ public class VarSpec extends TemplatePartial<VarSpec.Value> {
     return name;
   }
 
+  /**
+   * @deprecated templates already built are not affected, create a new variable specifier instead
+   */
+  @Deprecated
   public void setName(String name) {
     this.name = name;
+    this.instruction = null;
   }
 
   public Modifier getModifier() {
@@ -127,16 +240,37 @@ public class VarSpec extends TemplatePartial<VarSpec.Value> {
   @Override
   public Value expand(Map<String, Object> values) {
     Object value = values == null ? null : values.get(name);
-    if (value == null) {
-      return null;
-    } else if (value instanceof Map) {
-      boolean pair = Modifier.EXPLODE.equals(this.modifier);
-      return ExpansionProcessor.expand(name, (Map) value, pair);
-    } else if (value instanceof Iterable) {
-      return ExpansionProcessor.expand(name, (Iterable) value);
-    } else {
-      return ExpansionProcessor.expand(name, value);
+    return ExpansionProcessor.resolve(name, value, modifier, PrefixVarSpec.IGNORE_MAX_LENGTH);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    VarSpec varSpec = (VarSpec) o;
+    return name.equals(varSpec.name) && modifier == varSpec.modifier;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * name.hashCode() + modifier.ordinal();
+  }
+
+  /**
+   * Writes this variable as a simple string expansion, like <code>{var}</code>.
+   */
+  @Override
+  public void expandTo(Map<String, Object> values, Appendable out) throws IOException {
+    CompiledTemplate.Instruction instruction = this.instruction;
+    if (instruction == null) {
+      // instructions are immutable, so that racing threads may each build their own
+      this.instruction = instruction = new CompiledTemplate.Instruction(Operator.NUL, this);
     }
+    instruction.execute(values, out);
   }
 
   private String validateName(String name) {
@@ -147,7 +281,7 @@ public class VarSpec extends TemplatePartial<VarSpec.Value> {
     if(validate.contains(" ")){
       throw new MalformedExpressionException("The variable name \"" + name + "\" cannot contain spaces (leading or trailing)");
     }
-    if(!name.matches("([\\w\\_\\.]|%[A-Fa-f0-9]{2})+")){ //TODO make this to be GWT friendly
+    if(TemplateParser.scanVarName(name, 0, name.length()) != name.length()){
       throw new MalformedExpressionException("The variable name " + name + " contains invalid characters");
     }
     return validate;
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.template;
+
+/**
+ * <p>
+ * Source of the variable values of an expansion.
+ * </p>
+ * <p>
+ * A {@link CompiledTemplate} resolves each of its variables exactly once per expansion, by slot (the index of the
+ * variable in {@link CompiledTemplate#getVariableNames()}) and by name, so that implementations can read their
+ * values from whatever they hold, without building a map first.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ * @see VariableResolvers
+ */
+public interface VariableResolver {
+
+  /**
+   * @param slot the slot of the variable in the template being expanded
+   * @param name the name of the variable
+   * @return the value of the variable, or null if it is undefined
+   */
+  Object resolve(int slot, String name);
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.template;
+
+import java.util.Map;
+
+/**
+ * Adapters of the common value holders to {@link VariableResolver}.
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public final class VariableResolvers {
+
+  /**
+   * @return a resolver looking up the variables by name
+   */
+  public static VariableResolver forMap(final Map<String, ?> values) {
+    return new VariableResolver() {
+      @Override
+      public Object resolve(int slot, String name) {
+        return values.get(name);
+      }
+    };
+  }
+
+  /**
+   * @return a resolver reading the variables by slot, undefined beyond the end of the array
+   */
+  public static VariableResolver forArray(final Object[] values) {
+    return new VariableResolver() {
+      @Override
+      public Object resolve(int slot, String name) {
+        return slot < values.length ? values[slot] : null;
+      }
+    };
+  }
+
+  private VariableResolvers() {
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.template.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Declares the template expanded by a method of an interface, its variables being the parameters of the method:
+ * </p>
+ * <pre>
+ * public interface Links {
+ *   &#64;UriTemplate("/users/{id}{?fields*}")
+ *   String user(long id, List&lt;String&gt; fields);
+ * }
+ * </pre>
+ * <p>
+ * The annotation processor <code>com.seanchenxi.gwt.uri.processor.UriTemplateProcessor</code> parses the templates
+ * when compiling, and generates an implementation of the interface, named after it (<code>LinksExpander</code>),
+ * which expands them without parsing nor maps. It works for both JVM and GWT code.
+ * </p>
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface UriTemplate {
+
+  String value();
+
+  /**
+   * Names the variable of a parameter, when it is not the name of the parameter (e.g. <code>owner.id</code>).
+   */
+  @Documented
+  @Retention(RetentionPolicy.SOURCE)
+  @Target(ElementType.PARAMETER)
+  @interface Variable {
+
+    String value();
+  }
+}
@@ -29,6 +29,11 @@ public class MalformedExpressionException extends RuntimeException {
     this.position = position;
   }
 
+  public MalformedExpressionException(String message, int position) {
+    super(message);
+    this.position = position;
+  }
+
   public MalformedExpressionException(String message, Throwable throwable) {
     super(message, throwable);
   }
@@ -18,6 +18,7 @@ package com.seanchenxi.gwt.uri.template;
 
 import com.google.gwt.http.client.URL;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
@@ -31,6 +32,7 @@ import java.util.Set;
  * @author Xi CHEN
  * @since 13/12/15.
  * @see <a href="http://tools.ietf.org/html/rfc6570#appendix-A">Implementation Hints | RFC 6570</a>
+ * @see PercentDecoder
  */
 public enum EncodeRule {
   /**
@@ -89,6 +91,19 @@ public enum EncodeRule {
 
   public abstract String encode(String input);
 
+  public void encodeTo(CharSequence input, Appendable out) throws IOException {
+    out.append(encode(input.toString()));
+  }
+
+  public void encodeTo(CharSequence input, int maxLength, Appendable out) throws IOException {
+    String value = input.toString();
+    out.append(encode(value.substring(0, ExpansionProcessor.prefixEnd(value, maxLength))));
+  }
+
+  boolean isAllowed(char c) {
+    return UNRESERVED.contains(c) || (this == U_R && RESERVED.contains(c));
+  }
+
   protected String doEncode(String input, boolean passReserved) {
     return passReserved ? URL.encodeQueryString(input).replace("!", "%21") : URL.encode(input);
   }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri.template;
+
+import java.io.IOException;
+
+/**
+ * GWT version of the scalar writer: only integers and booleans, the strings of JavaScript numbers holding
+ * reserved characters (<code>1e+21</code>).
+ *
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+final class ScalarWriter {
+
+  static boolean isUnreserved(Object value) {
+    return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+        || value instanceof Boolean;
+  }
+
+  static void write(Object value, Appendable out) throws IOException {
+    if (value instanceof Boolean) {
+      out.append((Boolean) value ? "true" : "false");
+    } else if (value instanceof Long) {
+      out.append(String.valueOf(((Long) value).longValue()));
+    } else {
+      out.append(String.valueOf(((Number) value).intValue()));
+    }
+  }
+
+  private ScalarWriter() {
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri;
+
+import com.seanchenxi.gwt.uri.template.EncodeRule;
+import com.seanchenxi.gwt.uri.template.PercentDecoder;
+import com.seanchenxi.gwt.uri.template.UriTemplates;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public class EncodeRuleTest {
+
+  @Test
+  public void testUnchangedInputIsReturned() {
+    String input = "Hello-World_1.0~";
+    assertSame(input, EncodeRule.U.encode(input));
+    String reserved = "/foo/bar?x=1&y=2";
+    assertSame(reserved, EncodeRule.U_R.encode(reserved));
+  }
+
+  @Test
+  public void testEncode() {
+    assertEquals("Hello%20World%21", EncodeRule.U.encode("Hello World!"));
+    assertEquals("Hello%20World!", EncodeRule.U_R.encode("Hello World!"));
+    assertEquals("50%25", EncodeRule.U_R.encode("50%"));
+    assertEquals("dr%C3%BCcken", EncodeRule.U.encode("drücken"));
+    assertEquals("%E4%B8%AD", EncodeRule.U.encode("中"));
+    assertEquals("%F0%9F%98%80", EncodeRule.U.encode("😀"));
+  }
+
+  @Test
+  public void testUnpairedSurrogate() {
+    assertEquals("a%3Fb", EncodeRule.U.encode("a\uD83Db"));
+    assertEquals("%3F", EncodeRule.U.encode("\uDE00"));
+  }
+
+  @Test
+  public void testEncodeTo() throws IOException {
+    StringBuilder out = new StringBuilder("x=");
+    EncodeRule.U.encodeTo("a b/c", out);
+    assertEquals("x=a%20b%2Fc", out.toString());
+  }
+
+  @Test
+  public void testEncodePrefix() throws IOException {
+    StringBuilder out = new StringBuilder();
+    EncodeRule.U.encodeTo("a😀b c", 2, out);
+    assertEquals("a%F0%9F%98%80", out.toString());
+    out.setLength(0);
+    EncodeRule.U.encodeTo("ab", 5, out);
+    assertEquals("ab", out.toString());
+
+    Map<String, Object> values = Collections.<String, Object>singletonMap("var", "😀😀x");
+    assertEquals("%F0%9F%98%80", UriTemplates.parse("{var:1}").expand(values));
+    assertEquals("%F0%9F%98%80%F0%9F%98%80", UriTemplates.parse("{var:2}").expand(values));
+    assertEquals("%F0%9F%98%80%F0%9F%98%80x", UriTemplates.parse("{var:3}").expand(values));
+  }
+
+  @Test
+  public void testDecode() {
+    String plain = "a+b/c";
+    assertSame(plain, PercentDecoder.decode(plain));
+    for (String value : new String[]{"Hello World!", "drücken", "中", "😀", "50%", "a+b"}) {
+      assertEquals(value, PercentDecoder.decode(EncodeRule.U.encode(value)));
+    }
+    assertEquals("dr\u00fccken", PercentDecoder.decode("dr%c3%BCcken"));
+    StringBuilder uri = new StringBuilder("/users/J%C3%BCrgen%20%F0%9F%98%80/posts");
+    assertEquals("Jürgen 😀", PercentDecoder.decode(uri, 7, 33));
+    assertEquals("posts", PercentDecoder.decode(uri, 34, uri.length()));
+
+    for (String malformed : new String[]{"%", "%4", "%G1", "%C3", "%C3%28", "%80", "%C0%AF", "%ED%A0%80",
+        "%F4%90%80%80", "%E4%B8"}) {
+      try {
+        PercentDecoder.decode(malformed);
+        fail(malformed);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri;
+
+import com.seanchenxi.gwt.uri.template.CacheStats;
+import com.seanchenxi.gwt.uri.template.EncodeRule;
+import com.seanchenxi.gwt.uri.template.EncodingCache;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public class EncodingCacheTest {
+
+  @Test
+  public void testStats() {
+    EncodingCache cache = new EncodingCache(8);
+    String encoded = cache.encode(EncodeRule.U, "a b");
+    assertEquals("a%20b", encoded);
+    assertSame(encoded, cache.encode(EncodeRule.U, "a b"));
+    assertEquals("a/b", cache.encode(EncodeRule.U_R, "a/b"));
+    String unchanged = "abc";
+    assertSame(unchanged, cache.encode(EncodeRule.U, unchanged));
+
+    CacheStats stats = cache.stats();
+    assertEquals(1, stats.getHitCount());
+    assertEquals(3, stats.getMissCount());
+    assertEquals(0.25, stats.getHitRate(), 1e-9);
+    assertEquals(3, stats.getSize());
+    assertEquals(16, stats.getMaximumSize());
+
+    cache.clear();
+    assertEquals(0, cache.stats().getSize());
+  }
+
+  @Test
+  public void testEviction() {
+    EncodingCache cache = new EncodingCache(8);
+    for (int i = 0; i < 8; i++) {
+      cache.encode(EncodeRule.U, "v " + i);
+    }
+    cache.encode(EncodeRule.U, "v 0");
+    cache.encode(EncodeRule.U, "v 8");
+    CacheStats stats = cache.stats();
+    assertEquals(1, stats.getEvictionCount());
+    assertEquals(8, stats.getSize());
+
+    // "v 1" was the least recently used value
+    cache.encode(EncodeRule.U, "v 0");
+    assertEquals(2, cache.stats().getHitCount());
+    cache.encode(EncodeRule.U, "v 1");
+    assertEquals(2, cache.stats().getHitCount());
+
+    EncodingCache segmented = new EncodingCache(64);
+    for (int i = 0; i < 1000; i++) {
+      segmented.encode(EncodeRule.U, "value " + i);
+    }
+    stats = segmented.stats();
+    assertTrue(stats.toString(), stats.getSize() <= 64);
+    assertEquals(1000 - stats.getSize(), stats.getEvictionCount());
+  }
+
+  @Test
+  public void testLongValuesAreNotCached() {
+    EncodingCache cache = new EncodingCache(8, 4);
+    assertEquals("a%20b%20c", cache.encode(EncodeRule.U, "a b c"));
+    assertEquals("a%20b%20c", cache.encode(EncodeRule.U, "a b c"));
+    assertEquals("a%20b", cache.encode(EncodeRule.U, "a b"));
+    CacheStats stats = cache.stats();
+    assertEquals(1, stats.getRequestCount());
+    assertEquals(1, stats.getSize());
+  }
+}
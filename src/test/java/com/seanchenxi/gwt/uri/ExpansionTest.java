@@ -0,0 +1,451 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri;
+
+import com.seanchenxi.gwt.uri.server.BatchExpander;
+import com.seanchenxi.gwt.uri.server.BeanResolver;
+import com.seanchenxi.gwt.uri.server.ByteBufferSink;
+import com.seanchenxi.gwt.uri.server.Expander;
+import com.seanchenxi.gwt.uri.server.ExpanderGenerator;
+import com.seanchenxi.gwt.uri.server.TemplateMetrics;
+import com.seanchenxi.gwt.uri.template.Bindings;
+import com.seanchenxi.gwt.uri.template.CompiledTemplate;
+import com.seanchenxi.gwt.uri.template.EncodeRule;
+import com.seanchenxi.gwt.uri.template.EncodedValue;
+import com.seanchenxi.gwt.uri.template.Expression;
+import com.seanchenxi.gwt.uri.template.PrefixVarSpec;
+import com.seanchenxi.gwt.uri.template.TemplatePartial;
+import com.seanchenxi.gwt.uri.template.UriTemplate;
+import com.seanchenxi.gwt.uri.template.UriTemplateBuilder;
+import com.seanchenxi.gwt.uri.template.UriTemplates;
+import com.seanchenxi.gwt.uri.template.VarSpec;
+import com.seanchenxi.gwt.uri.template.VariableResolver;
+import com.seanchenxi.gwt.uri.template.exception.MalformedExpressionException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public class ExpansionTest {
+
+  @Test
+  public void testSlots() {
+    CompiledTemplate template = UriTemplates.parse("/users/{id}{?fields,id}");
+    assertEquals(Arrays.asList("id", "fields"), template.getVariableNames());
+    assertEquals(1, template.slotOf("fields"));
+    assertEquals(-1, template.slotOf("other"));
+
+    Object[] values = new Object[2];
+    values[template.slotOf("id")] = 42;
+    assertEquals("/users/42?id=42", template.expand(values));
+    values[template.slotOf("fields")] = Arrays.asList("name", "email");
+    assertEquals("/users/42?fields=name,email&id=42", template.expand(values));
+
+    CompiledTemplate bound = template.bind(Bindings.EMPTY.with("fields", "all"));
+    assertEquals("/users/7?fields=all&id=7", bound.expand(new Object[]{7, null}));
+  }
+
+  @Test
+  public void testBindings() {
+    List<String> tags = new ArrayList<String>(Arrays.asList("x", "y"));
+    Map<String, Object> source = new HashMap<String, Object>();
+    source.put("q", "a");
+    source.put("tags", tags);
+    source.put("page", null);
+    Bindings bindings = Bindings.of(source);
+    CompiledTemplate template = UriTemplates.parse("{?q,tags,page}").bind(bindings);
+
+    source.put("q", "b");
+    source.put("page", 3);
+    tags.add("z");
+    assertEquals("?q=a&tags=x,y", template.expand(Collections.<String, Object>emptyMap()));
+    assertEquals("?q=a&tags=x,y", template.expand(new Object[3]));
+    try {
+      ((List<?>) bindings.get("tags")).clear();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("q", "c");
+    values.put("page", 2);
+    assertEquals("?q=c&tags=x,y&page=2", template.expand(values));
+    assertEquals("?q=c&tags=u&page=2", template.expand(new Object[]{"c", Collections.singletonList("u"), 2}));
+    assertEquals("?q=d&tags=x,y", template.bind(bindings.with("q", "d")).expand(Collections.<String, Object>emptyMap()));
+    assertEquals(bindings, template.getBindings());
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testPartialSinks() {
+    Expression expression = (Expression) UriTemplateBuilder.create("{?q,page}").build().getPartials().get(0);
+    StringBuilder out = new StringBuilder();
+    expression.expandTo(Collections.<String, Object>singletonMap("q", "a b"), out);
+    expression.expandTo(Collections.<String, Object>singletonMap("page", 2), out);
+    assertEquals("?q=a%20b?page=2", out.toString());
+
+    PrefixVarSpec varSpec = new PrefixVarSpec("x", 1);
+    out.setLength(0);
+    varSpec.expandTo(Collections.<String, Object>singletonMap("x", "ab"), out);
+    varSpec.setMaxLength(2);
+    varSpec.expandTo(Collections.<String, Object>singletonMap("x", "ab"), out);
+    assertEquals("aab", out.toString());
+  }
+
+  @Test
+  public void testResolver() {
+    CompiledTemplate template = UriTemplates.parse("{/id,id}{?q}");
+    final int[] calls = new int[1];
+    VariableResolver resolver = new VariableResolver() {
+      @Override
+      public Object resolve(int slot, String name) {
+        calls[0]++;
+        return "id".equals(name) ? "a b" : null;
+      }
+    };
+    assertEquals("/a%20b/a%20b", template.expand(resolver));
+    assertEquals(2, calls[0]);
+    assertEquals("?q=x", template.expand(Collections.<String, Object>singletonMap("q", "x")));
+  }
+
+  @Test
+  public void testStreamedComposites() {
+    final List<String> facets = Arrays.asList("red", null, " blue ", "");
+    final int[] iterations = new int[1];
+    Iterable<String> once = new Iterable<String>() {
+      @Override
+      public Iterator<String> iterator() {
+        iterations[0]++;
+        return facets.iterator();
+      }
+    };
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("facet", once);
+    values.put("none", Collections.emptyList());
+    assertEquals("?facet=red&facet=blue&facet=", UriTemplates.parse("{?none*,facet*}").expand(values));
+    assertEquals("?facet=red,blue,", UriTemplates.parse("{?facet,none}").expand(values));
+    assertEquals(2, iterations[0]);
+  }
+
+  @Test
+  public void testBeanResolver() {
+    CompiledTemplate template = UriTemplates.parse("/users/{id}{/name}{?active,tags,owner.id,missing}");
+    User owner = new User(1, "root", null);
+    User user = new User(42, "Jürgen", owner);
+    assertEquals("/users/42/J%C3%BCrgen?active=true&tags=a,b&owner.id=1", template.expand(BeanResolver.of(user)));
+    assertEquals("/users/1/root?active=true&tags=a,b", template.expand(BeanResolver.of(owner)));
+
+    assertEquals("", UriTemplates.parse("{class,hashCode,toString,delete}").expand(BeanResolver.of(user)));
+    assertFalse(user.deleted);
+  }
+
+  @Test
+  public void testBatchExpansion() {
+    CompiledTemplate template = UriTemplates.parse("/items/{id}{?page}");
+    List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < 5000; i++) {
+      Map<String, Object> row = new HashMap<String, Object>();
+      row.put("id", i);
+      row.put("page", i % 3 == 0 ? null : i % 7);
+      rows.add(row);
+    }
+    List<String> expanded = new BatchExpander(template).expandAll(rows);
+    assertEquals(rows.size(), expanded.size());
+    for (int i = 0; i < rows.size(); i++) {
+      assertEquals(template.expand(rows.get(i)), expanded.get(i));
+    }
+    assertEquals(expanded, new BatchExpander(template).expandAll(new LinkedList<Map<String, Object>>(rows)));
+  }
+
+  @Test(timeout = 10000)
+  public void testNestedBatchExpansion() throws Exception {
+    final CompiledTemplate template = UriTemplates.parse("/items/{id}");
+    final List<Object[]> rows = new ArrayList<Object[]>();
+    for (int i = 0; i < 5000; i++) {
+      rows.add(new Object[]{i});
+    }
+    // the only thread of the executor expands the batch, its chunks are queued behind it
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      List<String> expanded = executor.submit(new Callable<List<String>>() {
+        @Override
+        public List<String> call() {
+          return new BatchExpander(template, executor).expandAllSlots(rows);
+        }
+      }).get();
+      assertEquals(rows.size(), expanded.size());
+      assertEquals("/items/4999", expanded.get(4999));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPartialExpand() {
+    UriTemplate template = UriTemplateBuilder.create("{+host}/v{version}/{tenant}/items{/id}{?lang,q,page}{#frag,section}")
+        .set("host", "https://api.example.com")
+        .set("version", 2)
+        .set("tenant", "acme corp")
+        .set("lang", "fr")
+        .set("frag", "top")
+        .build();
+    UriTemplate folded = template.partialExpand(Collections.<String, Object>singletonMap("section", null));
+    assertEquals("https://api.example.com/v2/acme%20corp/items{/id}?lang=fr{&q,page}#top", folded.template());
+
+    Map<String, Object> values = new HashMap<String, Object>(template.getValues());
+    values.put("id", 7);
+    values.put("page", 3);
+    assertEquals(template.expand(values), folded.expand(values));
+    assertEquals("https://api.example.com/v2/acme%20corp/items/7?lang=fr&page=3#top", folded.expand(values));
+
+    UriTemplate kept = UriTemplateBuilder.create("{x,y}{?a,b}").set("y", 1).set("b", 2).foldValues().build();
+    assertEquals("{x,y}{?a,b}", kept.template());
+  }
+
+  @Test
+  public void testLiterals() {
+    UriTemplateBuilder builder = UriTemplateBuilder.create("/a b/{x}/café%C3%A9|").baseUrl("http://example.com");
+    builder.literal("/").literal("end");
+    UriTemplate template = builder.build();
+    assertEquals(3, template.getPartials().size());
+    assertEquals(template, builder.build());
+    assertEquals("http://example.com/a%20b/1/caf%C3%A9%C3%A9%7C/end",
+        template.expand(Collections.<String, Object>singletonMap("x", 1)));
+  }
+
+  @Test
+  public void testExpandToBytes() throws IOException {
+    CompiledTemplate template = UriTemplates.parse("/café/{name}{?tags}");
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("name", "Jürgen 😀");
+    values.put("tags", Arrays.asList("a", "b"));
+    String expected = template.expand(values);
+    assertArrayEquals(expected.getBytes("UTF-8"), template.expandToBytes(values));
+
+    ByteBuffer buffer = ByteBuffer.allocate(128);
+    template.expandTo(values, new ByteBufferSink(buffer));
+    assertEquals(expected, new String(buffer.array(), 0, buffer.position(), "UTF-8"));
+  }
+
+  @Test
+  public void testEncodedValues() {
+    CompiledTemplate template = UriTemplates.parse("{x}/{+x}{#x}{?x}{&y*}/{x:4}");
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("x", UriTemplates.encoded("a%2Fb%C3%BC%20c"));
+    values.put("y", Collections.singletonMap(UriTemplates.encoded("k%3D"), UriTemplates.encoded("%25")));
+    assertEquals("a%2Fb%C3%BC%20c/a%2Fb%C3%BC%20c#a%2Fb%C3%BC%20c?x=a%2Fb%C3%BC%20c&k%3D=%25/a%2Fb%C3%BC",
+        template.expand(values));
+
+    EncodedValue raw = EncodedValue.of("a/b c");
+    values.put("x", raw);
+    assertEquals("a%2Fb%20c/a/b%20c#a/b%20c?x=a%2Fb%20c&k%3D=%25/a%2Fb%20", template.expand(values));
+    assertSame(raw.encode(EncodeRule.U), raw.encode(EncodeRule.U));
+
+    try {
+      UriTemplates.encoded("100%");
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void testMetrics() {
+    TemplateMetrics metrics = TemplateMetrics.install();
+    try {
+      CompiledTemplate template = UriTemplates.parse("/metrics/{id}");
+      for (int i = 0; i < 10; i++) {
+        UriTemplates.parse("/metrics/{id}").expand(new Object[]{i});
+      }
+      template.expandToBytes(Collections.<String, Object>singletonMap("id", 1000));
+      try {
+        UriTemplates.parse("/metrics/{id");
+        fail();
+      } catch (MalformedExpressionException expected) {
+      }
+      TemplateMetrics.TemplateStats stats = metrics.getTemplates().get(0);
+      assertEquals("/metrics/{id}", stats.getTemplate());
+      assertEquals(11, stats.getCount());
+      assertEquals(13, stats.getLengths().getMax());
+      assertEquals(113.0 / 11, stats.getLengths().getMean(), 1e-9);
+      assertEquals(1, metrics.getParseFailureCount());
+      assertEquals(2, metrics.getParseTimes().getCount() + metrics.getParseFailureCount());
+      assertEquals(10, metrics.getCacheHitCount());
+
+      Expander expander = ExpanderGenerator.generate("/other/{id}");
+      metrics = TemplateMetrics.install(1);
+      template.expand(new Object[]{1});
+      UriTemplates.parse("/other/{id}").expand(new Object[]{1});
+      expander.expand(new Object[]{2});
+      assertEquals(1, metrics.getTemplates().size());
+      assertEquals(2, metrics.getUntracked().getCount());
+    } finally {
+      UriTemplates.setListener(null);
+    }
+  }
+
+  @Test
+  public void testGeneratedFallbacks() {
+    TemplatePartial<String> foreign = new TemplatePartial<String>() {
+      @Override
+      public String expand(Map<String, Object> values) {
+        return "!" + values.get("id");
+      }
+
+      @Override
+      public String template() {
+        return "!";
+      }
+    };
+    UriTemplate template = UriTemplateBuilder.create("/users/{id}").add(foreign).build();
+    Expander expander = ExpanderGenerator.generate(template);
+    assertFalse(expander.isGenerated());
+    assertEquals("/users/42!42", expander.expand(Collections.<String, Object>singletonMap("id", 42)));
+
+    StringBuilder names = new StringBuilder();
+    Object[] values = new Object[300];
+    for (int i = 0; i < values.length; i++) {
+      names.append(i == 0 ? "{v" : ",v").append(i);
+      values[i] = i;
+    }
+    expander = ExpanderGenerator.generate(names.append('}').toString());
+    assertFalse(expander.isGenerated());
+    assertEquals(expander.getTemplate().expand(values), expander.expand(values));
+
+    expander = ExpanderGenerator.generate("/users/{id}");
+    assertTrue(expander.isGenerated());
+    int hint = expander.getTemplate().getLengthHint();
+    for (int i = 0; i < 64; i++) {
+      expander.expand(new Object[]{"0123456789012345678901234567890123456789"});
+    }
+    assertTrue(expander.getTemplate().getLengthHint() > hint);
+  }
+
+  @Test
+  public void testScalars() throws IOException {
+    CompiledTemplate template = UriTemplates.parse("{/id}{?page,ratio,flag,uuid}{;ids*}");
+    UUID uuid = UUID.fromString("123e4567-e89b-02d3-a456-426614174000");
+    Object[] values = {Long.MIN_VALUE, 0, -2.5e-10, true, uuid, Arrays.asList((byte) 7, (short) -8, 1.5f)};
+    String expected = "/-9223372036854775808?page=0&ratio=-2.5E-10&flag=true&uuid=123e4567-e89b-02d3-a456-426614174000"
+        + ";ids=7;ids=-8;ids=1.5";
+    assertEquals(expected, template.expand(values));
+
+    Map<String, Object> map = new HashMap<String, Object>();
+    for (String name : template.getVariableNames()) {
+      map.put(name, values[template.slotOf(name)]);
+    }
+    assertArrayEquals(expected.getBytes("UTF-8"), template.expandToBytes(map));
+    assertEquals("/12?page=0", UriTemplates.parse("{/id:2}{?page}").expand(new Object[]{12345, 0}));
+  }
+
+  private static class User {
+
+    public final List<String> tags = Arrays.asList("a", "b");
+
+    private final int id;
+
+    private final String name;
+
+    private final User owner;
+
+    private boolean deleted;
+
+    User(int id, String name, User owner) {
+      this.id = id;
+      this.name = name;
+      this.owner = owner;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public boolean isActive() {
+      return true;
+    }
+
+    public User getOwner() {
+      return owner;
+    }
+
+    public boolean delete() {
+      deleted = true;
+      return true;
+    }
+  }
+
+  @Test
+  public void testVarSpecValues() {
+    VarSpec.Value value = new VarSpec("x").expand(Collections.<String, Object>singletonMap("x", 12));
+    assertEquals("12", value.getItem());
+    assertFalse(value.isEmpty());
+    Iterator iterator = value.iterator();
+    assertEquals("12", iterator.next());
+    assertFalse(iterator.hasNext());
+    assertTrue(new VarSpec("x").expand(Collections.<String, Object>singletonMap("x", "")).isEmpty());
+
+    List<String> items = new ArrayList<String>(Arrays.asList("a", null, "b"));
+    value = new VarSpec("x").expand(Collections.<String, Object>singletonMap("x", items));
+    assertEquals(null, value.getItem());
+    assertFalse(value.isEmpty());
+    iterator = value.iterator();
+    assertEquals("a", iterator.next());
+    try {
+      iterator.remove();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertEquals("b", iterator.next());
+    assertFalse(iterator.hasNext());
+
+    // composite values are views, printed while iterated
+    items.add("c");
+    List<Object> printed = new ArrayList<Object>();
+    for (Object item : value) {
+      printed.add(item);
+    }
+    assertEquals(Arrays.asList("a", "b", "c"), printed);
+    items.clear();
+    assertTrue(value.isEmpty());
+  }
+}
@@ -17,6 +17,8 @@
 package com.seanchenxi.gwt.uri;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seanchenxi.gwt.uri.server.Expander;
+import com.seanchenxi.gwt.uri.server.ExpanderGenerator;
 import com.seanchenxi.gwt.uri.template.UriTemplate;
 import com.seanchenxi.gwt.uri.template.UriTemplateBuilder;
 import org.junit.Test;
@@ -90,6 +92,9 @@ public class SpecExampleTest{
         assertEquals(template, uriTemplate.template());
 
         String expand = uriTemplate.expand(variables);
+        Expander expander = ExpanderGenerator.generate(uriTemplate);
+        assertTrue(expander.isGenerated());
+        assertEquals(expand, expander.expand(variables));
         if(expected instanceof List){
           System.out.print(String.format("%s CONTAINS %s", expected, expand));
           int i = ((List) expected).indexOf(expand);
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri;
+
+import com.seanchenxi.gwt.uri.template.CompiledTemplate;
+import com.seanchenxi.gwt.uri.template.UriTemplateRouter;
+import com.seanchenxi.gwt.uri.template.UriTemplates;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public class TemplateMatcherTest {
+
+  @Test
+  public void testMatch() {
+    CompiledTemplate template = UriTemplates.parse("/users/{id}/posts{/year,month}{?q,page}");
+    Map<String, Object> values = template.match("/users/j%C3%BCrgen/posts/2018/10?q=a%20b&page=2");
+    assertEquals("jürgen", values.get("id"));
+    assertEquals("2018", values.get("year"));
+    assertEquals("10", values.get("month"));
+    assertEquals("a b", values.get("q"));
+    assertEquals("2", values.get("page"));
+
+    values = template.match("/users/42/posts");
+    assertEquals(1, values.size());
+    assertEquals("42", values.get("id"));
+
+    assertNull(template.match("/groups/42/posts"));
+    assertNull(template.match("/users/42/posts?other=1"));
+    assertFalse(template.matches("/users/42/comments"));
+  }
+
+  @Test
+  public void testMatchComposites() {
+    Map<String, Object> values = UriTemplates.parse("{/path*}{?keys*}").match("/a/b%2Fc?x=1&y=2");
+    assertEquals(Arrays.asList("a", "b/c"), values.get("path"));
+    Map<String, String> keys = new LinkedHashMap<String, String>();
+    keys.put("x", "1");
+    keys.put("y", "2");
+    assertEquals(keys, values.get("keys"));
+
+    values = UriTemplates.parse("{?list}").match("?list=red,green,blue");
+    assertEquals(Arrays.asList("red", "green", "blue"), values.get("list"));
+
+    values = UriTemplates.parse("{?list*}").match("?list=red&list=green");
+    assertEquals(Arrays.asList("red", "green"), values.get("list"));
+  }
+
+  @Test(timeout = 2000)
+  public void testBacktrackingIsBounded() {
+    StringBuilder uri = new StringBuilder("/api");
+    for (int i = 0; i < 200; i++) {
+      uri.append("/a");
+    }
+    assertNull(UriTemplates.parse("/api{/a}{/b}{/c}{?q}").match(uri + "/!"));
+    assertEquals("a/b/c", UriTemplates.parse("/api{/a}{/b}{/c}{?q}").match("/api/a/b/c?q=1").get("a"));
+
+    StringBuilder letters = new StringBuilder();
+    for (int i = 0; i < 300; i++) {
+      letters.append('a');
+    }
+    assertNull(UriTemplates.parse("{a}{b}{c}{d}").match(letters + "!"));
+    assertEquals(letters.toString(), UriTemplates.parse("{a}{b}{c}{d}").match(letters.toString()).get("a"));
+  }
+
+  @Test(timeout = 2000)
+  public void testRepeatedVariables() {
+    assertEquals(Collections.singletonMap("x", "a"), UriTemplates.parse("{x}/{x}").match("a/a"));
+    assertNull(UriTemplates.parse("{x}/{x}").match("a/b"));
+    assertNull(UriTemplates.parse("/{x}/{x}").match("/a/b"));
+    assertEquals(Collections.singletonMap("x", "1"), UriTemplates.parse("{?x}{&x}").match("?x=1&x=1"));
+    assertNull(UriTemplates.parse("{?x}{&x}").match("?x=1&x=2"));
+
+    // the second x cannot take another value, nor unbind the first one when backtracking
+    Map<String, Object> variables = UriTemplates.parse("{x}{/x}{/y}").match("a/b");
+    assertEquals("a", variables.get("x"));
+    assertEquals("b", variables.get("y"));
+
+    StringBuilder letters = new StringBuilder();
+    for (int i = 0; i < 300; i++) {
+      letters.append('a');
+    }
+    assertNull(UriTemplates.parse("{x}{y}{x}{y}").match(letters + "!"));
+  }
+
+  @Test
+  public void testRoundTrip() {
+    CompiledTemplate template = UriTemplates.parse("http://example.com/{+base}/files{/name}.{ext}{#section}");
+    Map<String, Object> values = new LinkedHashMap<String, Object>();
+    values.put("base", "a/b");
+    values.put("name", "read me");
+    values.put("ext", "txt");
+    values.put("section", "intro");
+    assertEquals(values, template.match(template.expand(values)));
+  }
+
+  @Test(timeout = 2000)
+  public void testRoute() {
+    UriTemplateRouter<String> router = new UriTemplateRouter<String>()
+        .add("/users/{id}", "user")
+        .add("/users/me", "me")
+        .add("/users/{id}/posts{?page}", "posts")
+        .add("/static/{+path}", "static")
+        .add("/static/{name}", "file");
+    for (int i = 0; i < 1000; i++) {
+      router.add("/api" + i + "/{id}", "api" + i);
+    }
+    assertEquals("me", router.route("/users/me").getTarget());
+    assertEquals("user", router.route("/users/42").getTarget());
+    assertEquals("42", router.route("/users/42").getVariables().get("id"));
+    assertEquals("posts", router.route("/users/42/posts?page=2").getTarget());
+    assertEquals("file", router.route("/static/app.js").getTarget());
+    assertEquals("a/app.js", router.route("/static/a/app.js").getVariables().get("path"));
+    assertEquals("api999", router.route("/api999/x").getTarget());
+    assertNull(router.route("/users/42/comments"));
+    assertEquals(1005, router.size());
+
+    router.add("/api{/a}{/b}{/c}{?q}", "nested");
+    StringBuilder uri = new StringBuilder("/api");
+    for (int i = 0; i < 200; i++) {
+      uri.append("/a");
+    }
+    assertNull(router.route(uri + "/!"));
+    assertEquals("nested", router.route(uri.toString()).getTarget());
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.seanchenxi.gwt.uri;
+
+import com.seanchenxi.gwt.uri.template.CacheStats;
+import com.seanchenxi.gwt.uri.template.CompiledTemplate;
+import com.seanchenxi.gwt.uri.template.Expression;
+import com.seanchenxi.gwt.uri.template.Literal;
+import com.seanchenxi.gwt.uri.template.Operator;
+import com.seanchenxi.gwt.uri.template.PrefixVarSpec;
+import com.seanchenxi.gwt.uri.template.TemplatePartial;
+import com.seanchenxi.gwt.uri.template.UriTemplate;
+import com.seanchenxi.gwt.uri.template.UriTemplateBuilder;
+import com.seanchenxi.gwt.uri.template.UriTemplates;
+import com.seanchenxi.gwt.uri.template.exception.MalformedExpressionException;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public class TemplateParserTest {
+
+  @Test
+  public void testParse() {
+    UriTemplate template = UriTemplateBuilder.create("/users/{id}{?fields*,page:3}").build();
+    List<TemplatePartial> partials = template.getPartials();
+    assertEquals(3, partials.size());
+    assertTrue(partials.get(0) instanceof Literal);
+    Expression query = (Expression) partials.get(2);
+    assertEquals(Operator.QUERY, query.getOperator());
+    assertEquals(3, ((PrefixVarSpec) query.getVarSpecs().get(1)).getMaxLength());
+    assertEquals("/users/{id}{?fields*,page:3}", template.template());
+  }
+
+  @Test
+  public void testValueSemantics() {
+    String raw = "/search{?q,page:3}{&filter*}";
+    UriTemplate first = UriTemplateBuilder.create(raw).build();
+    UriTemplate second = UriTemplateBuilder.create(raw).build();
+    assertEquals(first, second);
+    assertEquals(first.hashCode(), second.hashCode());
+    assertEquals(first.compile(), second.compile());
+
+    CompiledTemplate cached = UriTemplates.parse(raw);
+    assertSame(cached, UriTemplates.parse(raw));
+    assertEquals(first.compile(), cached);
+  }
+
+  @Test
+  public void testParseCache() {
+    UriTemplates.setMaximumSize(8);
+    try {
+      CompiledTemplate first = UriTemplates.parse("/cached/{id}");
+      assertSame(first, UriTemplates.parse("/cached/{id}"));
+      for (int i = 0; i < 8; i++) {
+        UriTemplates.parse("/cached/" + i + "/{id}");
+      }
+      CacheStats stats = UriTemplates.stats();
+      assertEquals(1, stats.getHitCount());
+      assertEquals(9, stats.getMissCount());
+      assertEquals(1, stats.getEvictionCount());
+      assertEquals(8, stats.getSize());
+      assertEquals(8, stats.getMaximumSize());
+
+      CompiledTemplate reparsed = UriTemplates.parse("/cached/{id}");
+      assertEquals(first, reparsed);
+      assertNotSame(first, reparsed);
+      assertEquals(10, UriTemplates.stats().getMissCount());
+    } finally {
+      UriTemplates.setMaximumSize(UriTemplates.DEFAULT_MAXIMUM_SIZE);
+    }
+  }
+
+  @Test
+  public void testHashCodeIgnoresValues() {
+    UriTemplate template = UriTemplateBuilder.create("/users/{id}").build();
+    Set<UriTemplate> templates = new HashSet<UriTemplate>();
+    templates.add(template);
+    template.getValues().put("id", 42);
+    assertTrue(templates.contains(template));
+    assertFalse(template.equals(UriTemplateBuilder.create("/users/{id}").build()));
+  }
+
+  @Test
+  public void testErrorPositions() {
+    assertErrorAt("/users/{id", 7);
+    assertErrorAt("/users/{id}}", 11);
+    assertErrorAt("{a b}", 2);
+    assertErrorAt("{var:0}", 5);
+    assertErrorAt("{var:10000}", 5);
+    assertErrorAt("x{=var}", 2);
+    assertErrorAt("{var,}", 5);
+    assertErrorAt("{}", 1);
+  }
+
+  private static void assertErrorAt(String raw, int position) {
+    try {
+      UriTemplateBuilder.create(raw);
+      fail("\"" + raw + "\" should be rejected");
+    } catch (MalformedExpressionException e) {
+      assertEquals(e.getMessage(), position, e.getPosition());
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Xi CHEN
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.seanchenxi.gwt.uri;
+
+import com.seanchenxi.gwt.uri.processor.UriTemplateProcessor;
+import com.seanchenxi.gwt.uri.template.UriTemplates;
+import com.seanchenxi.gwt.uri.template.annotation.UriTemplate;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Xi CHEN
+ * @since 18/10/26.
+ */
+public class UriTemplateProcessorTest {
+
+  public enum Sort {
+    NAME, DATE
+  }
+
+  public interface Links {
+
+    @UriTemplate("/users/{id}{?fields*}")
+    String user(long id, List<String> fields);
+
+    @UriTemplate("/search{?q,sort,page}{;lang,empty}{#section:3}")
+    String search(String q, Sort sort, Integer page, String lang, String empty, String section);
+
+    @UriTemplate("/owners/{owner.id}/{+path}/{x,y}")
+    String owner(@UriTemplate.Variable("owner.id") int ownerId, String path, Object x, Map<String, Object> y);
+
+    @UriTemplate("/café |%41")
+    String literal();
+
+    @UriTemplate("{a,e}{?java,out}")
+    String shadowing(String a, String e, Object java, @UriTemplate.Variable("out") int $out);
+  }
+
+  @Test
+  public void testGeneratedExpander() {
+    Links links = new UriTemplateProcessorTest_LinksExpander();
+    assertEquals("/users/42?fields=name&fields=email", links.user(42, Arrays.asList("name", "email")));
+    assertEquals("/users/42", links.user(42, null));
+
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put("q", "a b");
+    values.put("page", 2);
+    values.put("empty", "");
+    values.put("section", "introduction");
+    assertEquals(UriTemplates.parse("/search{?q,sort,page}{;lang,empty}{#section:3}").expand(values),
+        links.search("a b", null, 2, null, "", "introduction"));
+    values.put("sort", Sort.DATE);
+    values.put("lang", "fr");
+    values.remove("q");
+    assertEquals("/search?sort=DATE&page=2;lang=fr;empty#int", links.search(null, Sort.DATE, 2, "fr", "", "introduction"));
+
+    Map<String, Object> y = Collections.<String, Object>singletonMap("k", "v");
+    assertEquals("/owners/7/a/b/1,k,v", links.owner(7, "a/b", 1, y));
+    assertEquals("/caf%C3%A9%20%7C%41", links.literal());
+    assertEquals("x,y?java=z&out=1", links.shadowing("x", "y", "z", 1));
+  }
+
+  @Test
+  public void testTypeVariablesAreRejected() throws Exception {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    Assume.assumeNotNull(compiler);
+    URI uri = URI.create("string:///GenericLinks.java");
+    JavaFileObject source = new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return "public interface GenericLinks<T> {\n"
+            + "  @" + UriTemplate.class.getCanonicalName() + "(\"{x}\")\n"
+            + "  String a(T x);\n"
+            + "}\n";
+      }
+    };
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+    File output = File.createTempFile("processor", "");
+    assertTrue(output.delete() && output.mkdir());
+    StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+    files.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(output));
+    files.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singleton(output));
+    JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics,
+        Arrays.asList("-classpath", System.getProperty("java.class.path"), "-proc:only"), null,
+        Collections.singleton(source));
+    task.setProcessors(Collections.singleton(new UriTemplateProcessor()));
+    assertFalse(task.call());
+    assertEquals(1, diagnostics.getDiagnostics().size());
+    Diagnostic<? extends JavaFileObject> diagnostic = diagnostics.getDiagnostics().get(0);
+    assertEquals(Diagnostic.Kind.ERROR, diagnostic.getKind());
+    assertEquals("@UriTemplate parameters cannot use type variables", diagnostic.getMessage(null));
+    assertEquals(0, output.list().length);
+    files.close();
+    output.delete();
+  }
+}